@@ -1,127 +1,271 @@
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.acl.LastOwnerException;
+import java.util.ArrayList;
 import java.util.List;
 import java.io.IOException;
-import java.net.Socket;
-import java.util.ArrayList;
-import java.io.*;
-import java.net.ConnectException;
-import java.lang.InterruptedException;
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
-import java.net.InetAddress;
-import java.net.ServerSocket;
+import java.util.concurrent.locks.LockSupport;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousServerSocketChannel;
-import java.nio.channels.AsynchronousSocketChannel;
-import java.util.concurrent.Future;
+import java.nio.charset.StandardCharsets;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.ServerSocketChannel;
 
 public class ChannelServer {
+
+    // records are written once this many bytes are batched, or when no record is due yet
+    static final int BUFFER_SIZE = 1048576;
+
+    // waits longer than this sleep, shorter ones spin so the deadline is not overshot
+    static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    // binary format, see moa.tasks.BinaryInstanceParser
+    static final int MAGIC = 0x4D4F4142;
+
+    static final byte VERSION = 1;
+
+    static final int END_OF_STREAM = -1;
+
+    /**
+     * Time between two records, in nanoseconds, for a mean rate of IPS records per second.
+     */
+    interface ArrivalProfile {
+        long nextGap();
+    }
+
+    // every record 1/IPS after the previous one
+    static ArrivalProfile constant(int IPS) {
+        double gap = (double) SECOND / IPS;
+        return new ArrivalProfile() {
+            double due = 0;
+            long last = 0;
+            public long nextGap() {
+                // keep the fraction of nanosecond so the mean rate is exact
+                due += gap;
+                long next = (long) due;
+                long g = next - last;
+                last = next;
+                return g;
+            }
+        };
+    }
+
+    // exponential gaps, the records of a Poisson process of rate IPS
+    static ArrivalProfile poisson(int IPS, long seed) {
+        Random random = new Random(seed);
+        return () -> (long) (-Math.log(1.0 - random.nextDouble()) * SECOND / IPS);
+    }
+
+    // on/off: the whole second worth of records is sent during the on periods, nothing during the off ones
+    static ArrivalProfile bursty(int IPS, long onMillis, long offMillis) {
+        long on = TimeUnit.MILLISECONDS.toNanos(onMillis);
+        long off = TimeUnit.MILLISECONDS.toNanos(offMillis);
+        ArrivalProfile inBurst = constant((int) Math.max(1, Math.min(Integer.MAX_VALUE, (long) IPS * (on + off) / on)));
+        return new ArrivalProfile() {
+            long inPeriod = 0;
+            public long nextGap() {
+                long g = inBurst.nextGap();
+                inPeriod += g;
+                if (inPeriod >= on) {
+                    inPeriod -= on;
+                    g += off;
+                }
+                return g;
+            }
+        };
+    }
+
+    // labels of an @attribute line, null for a numeric attribute
+    static List<String> nominalValues(String line) {
+        int open = line.indexOf('{');
+        int close = line.lastIndexOf('}');
+        if (open < 0 || close < open)
+            return null;
+        List<String> values = new ArrayList<>();
+        for (String v : line.substring(open + 1, close).split(","))
+            values.add(unquote(v.trim()));
+        return values;
+    }
+
+    static String unquote(String v) {
+        if (v.length() >= 2 && (v.charAt(0) == '\'' || v.charAt(0) == '"') && v.charAt(v.length() - 1) == v.charAt(0))
+            return v.substring(1, v.length() - 1);
+        return v;
+    }
+
+    // length prefixed frame of a data line: the value of every attribute, the index of the label for nominal ones
+    static byte[] binaryFrame(String line, List<List<String>> attributes, int width) {
+        String[] fields = line.split(",", -1);
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + attributes.size() * width);
+        frame.putInt(attributes.size() * width);
+        for (int a = 0; a < attributes.size(); a++) {
+            double value = Double.NaN;
+            String field = a < fields.length ? unquote(fields[a].trim()) : "?";
+            if (!field.equals("?")) {
+                List<String> labels = attributes.get(a);
+                if (labels != null) {
+                    int index = labels.indexOf(field);
+                    if (index >= 0)
+                        value = index;
+                } else {
+                    try {
+                        value = Double.parseDouble(field);
+                    } catch (NumberFormatException ex) {
+                        // missing
+                    }
+                }
+            }
+            if (width == Double.BYTES)
+                frame.putDouble(value);
+            else
+                frame.putFloat((float) value);
+        }
+        return frame.array();
+    }
+
     public static void main(String[] args) throws IOException, InterruptedException {
-        if (args.length != 4) {
-            System.out.println("Usage: ServerProducer <ip> <port> <file> <Rate of instances per second>");
+        if (args.length < 4 || args.length > 7) {
+            System.out.println("Usage: ServerProducer <ip> <port> <file> <Rate of instances per second>"
+                    + " [constant | poisson | bursty:<on ms>:<off ms>] [seconds] [text | float64 | float32]");
             System.exit(1);
         }
         String ip = args[0];
         int port = Integer.parseInt(args[1]);
         String filename = args[2];
         int IPS = Integer.parseInt(args[3]);
-        int IPB = IPS/5;
-        int instancesSent = 0;
-        // load all file to memory
+        String profileName = args.length > 4 ? args[4] : "constant";
+        int maxSeconds = args.length > 5 ? Integer.parseInt(args[5]) : 120;
+        String format = args.length > 6 ? args[6] : "text";
+        int width = format.equals("float64") ? Double.BYTES : format.equals("float32") ? Float.BYTES : 0;
+        if (width == 0 && !format.equals("text"))
+            throw new IllegalArgumentException("Unknown format: " + format);
+        ArrivalProfile profile;
+        if (profileName.equals("constant")) {
+            profile = constant(IPS);
+        } else if (profileName.equals("poisson")) {
+            profile = poisson(IPS, 1);
+        } else if (profileName.startsWith("bursty")) {
+            String[] p = profileName.split(":");
+            profile = bursty(IPS, p.length > 1 ? Long.parseLong(p[1]) : 100, p.length > 2 ? Long.parseLong(p[2]) : 100);
+        } else {
+            throw new IllegalArgumentException("Unknown arrival profile: " + profileName);
+        }
+        long instancesSent = 0;
+        // load all file to memory, encoded once with the record delimiter
         List<String> lines = Files.readAllLines(Path.of(filename));
         System.out.println("read " + lines.size() + " lines to memory from file " + filename + ".");
+        int i = 0;
+        // labels of the nominal attributes, null for the numeric ones
+        List<List<String>> attributes = new ArrayList<>();
+        while (i < lines.size() && !lines.get(i).contains("@data")) {
+            if (lines.get(i).trim().toLowerCase().startsWith("@attribute"))
+                attributes.add(nominalValues(lines.get(i)));
+            i++;
+        }
+        i++;
+        byte[][] records = new byte[lines.size() - Math.min(i, lines.size())][];
+        int numRecords = 0;
+        for (; i < lines.size(); i++) {
+            if (lines.get(i).isEmpty())
+                continue;
+            if (width == 0)
+                records[numRecords++] = (lines.get(i) + "#").getBytes(StandardCharsets.UTF_8);
+            else
+                records[numRecords++] = binaryFrame(lines.get(i), attributes, width);
+        }
+        lines = null;
+
         ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
-        serverSocketChannel.configureBlocking(true);
         serverSocketChannel.bind(new InetSocketAddress(ip, port));
         System.out.println("ServerSocketChannel awaiting connections..." + serverSocketChannel.getLocalAddress());
-        int i = 0;
         SocketChannel socketChannel = serverSocketChannel.accept(); // blocking
         System.out.println("Connection from " + socketChannel + "!");
+        // blocking writes: a write returns once every byte is in the socket buffer
+        socketChannel.configureBlocking(true);
 
-        serverSocketChannel.configureBlocking(false);
-        if (socketChannel != null) {
-            socketChannel.configureBlocking(false);
-
-            boolean reading_header = true;
-            while (reading_header) {
-                String l = lines.get(i);
-                if (l.contains("@data"))
-                    reading_header = false;
-                i++;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        if (width > 0) {
+            // header frame, the consumer checks it against the header of its stream
+            buffer.putInt(MAGIC).put(VERSION).put((byte) width).putInt(attributes.size());
+            for (List<String> values : attributes)
+                buffer.putInt(values == null ? 0 : values.size());
+            buffer.flip();
+            while (buffer.hasRemaining())
+                socketChannel.write(buffer);
+            buffer.clear();
+        }
+        boolean keep_going = true;
+        long startingAll = System.nanoTime();
+        long end = startingAll + maxSeconds * SECOND;
+        long nextDue = startingAll;
+        long nextReport = startingAll + SECOND;
+        long sentThisSecond = 0;
+        int second = 0;
+        int r = 0;
+        while (r < numRecords && keep_going) {
+            long now = System.nanoTime();
+            // batch every record already due
+            while (r < numRecords && nextDue <= now && buffer.remaining() >= records[r].length) {
+                buffer.put(records[r++]);
+                nextDue += profile.nextGap();
+                sentThisSecond++;
+                instancesSent++;
             }
-
-            String msg = "";
-            // start sendind all the rest
-            boolean keep_going = true;
-            // long lastStart = 0;
-            long startTime = 0;
-            ByteBuffer buffer = ByteBuffer.allocate(1048576); //1048576
-            // while (i < lines.size() && keep_going) {
-            int limit = lines.size();
-            // int limit = i + 2000;
-            long startingAll = System.currentTimeMillis();
-            long lastSuccessfullStep = 0;
-            while (i < limit && keep_going) {
-                // lastStart = startTime;
-                startTime = System.nanoTime();
-                // We want to send a fixed per second rate, but divided in smaller chunks
-                // we use IPB (IPS/5) to send 5 smaller chunks
-                // create the chunk by sending instances without delay (Strings)
-                // while (instances.size() < IPB && i < lines.size()) {
-                // send chunk
-                int num_inst = 0;
-                while (num_inst < IPB && i < limit) {
-                    msg = lines.get(i++) + "#";
-                    buffer.flip();
-                    buffer = ByteBuffer.wrap(msg.getBytes());
-                    // System.out.print(msg);
-                    try {
+            if (buffer.position() > 0) {
+                buffer.flip();
+                try {
+                    while (buffer.hasRemaining())
                         socketChannel.write(buffer);
-                    } catch (IOException ex) {
-                        System.out.println("Closed by client!");
-                        keep_going = false;
-                        break;
-                    }
-                    num_inst++;
-                    instancesSent++;
-                }
-                if (!keep_going)
-                    break;
-                //System.out.println("Sent [ " + (num_inst) + " ] messages.");
-                // instancesSent += num_inst - 1;
-                long justSent = System.nanoTime();
-                long elapsed = TimeUnit.NANOSECONDS.toMillis(justSent - startTime);
-                long sl = elapsed > 0 && elapsed < 200 ? 200 - elapsed : 200;
-                // sleep for 200ms - time taken to send all messages
-                // System.out.println("st: " + startTime + " - elapsed: " + elapsed + " - diff st: " + TimeUnit.NANOSECONDS.toMillis(startTime - lastStart));
-                Thread.sleep(sl);
-                if ((System.currentTimeMillis() - startingAll) / 1000F > 120) {
+                } catch (IOException ex) {
+                    System.out.println("Closed by client!");
                     keep_going = false;
+                    break;
                 }
+                buffer.clear();
             }
-            double totalSpent = (System.currentTimeMillis() - startingAll) / 1000.0;
-            // send finish message
-            if (keep_going) {
-                msg = "$$";
-                buffer.flip();
-                buffer = ByteBuffer.wrap(msg.getBytes());
-                if (socketChannel.isOpen())
-                    socketChannel.write(buffer);
+            now = System.nanoTime();
+            while (now >= nextReport) {
+                // achieved vs requested rate
+                System.out.println("second " + (++second) + ": sent " + sentThisSecond + " of " + IPS
+                        + " requested (" + String.format("%.1f", 100.0 * sentThisSecond / IPS) + "%)");
+                sentThisSecond = 0;
+                nextReport += SECOND;
+            }
+            if (now >= end) {
+                keep_going = false;
+                break;
             }
-            System.out.println("\nTotal Time Producer (s): " + totalSpent);
-            System.out.println("Total instances Producer: " + instancesSent);
-            System.out.println("Producer Rate (inst per second): " + instancesSent/totalSpent);
-            // close socket
-            System.out.println("Closing socket and terminating program.");
-            socketChannel.configureBlocking(true);
-            socketChannel.close();
+            // wait for the next record
+            long wait = Math.min(nextDue, end) - now;
+            if (wait > SPIN_NANOS)
+                LockSupport.parkNanos(wait - SPIN_NANOS);
+            else
+                while (System.nanoTime() < nextDue)
+                    Thread.onSpinWait();
         }
-        // serverSocketChannel.configureBlocking(true);
+        double totalSpent = (System.nanoTime() - startingAll) / 1e9;
+        // send finish message
+        if (keep_going) {
+            buffer.clear();
+            if (width > 0)
+                buffer.putInt(END_OF_STREAM);
+            else
+                buffer.put("$$".getBytes(StandardCharsets.UTF_8));
+            buffer.flip();
+            if (socketChannel.isOpen())
+                while (buffer.hasRemaining())
+                    socketChannel.write(buffer);
+        }
+        System.out.println("\nTotal Time Producer (s): " + totalSpent);
+        System.out.println("Total instances Producer: " + instancesSent);
+        System.out.println("Producer Rate (inst per second): " + instancesSent/totalSpent);
+        System.out.println("Requested Rate (inst per second): " + IPS);
+        // close socket
+        System.out.println("Closing socket and terminating program.");
+        socketChannel.close();
         serverSocketChannel.close();
     }
- }
-
+}
@@ -1,9 +1,24 @@
 #!/bin/bash
 function Y {
-  #Usage: $0 FILE ALGORITHM RATE
+  #Usage: $0 FILE ALGORITHM RATE [virtual]
   #alterar para memória do servidor
   Memory=300G
   CORES="0,1,2,3,4,5,6,7"
+  #com "virtual" os Executor (MAX e RUNPER) usam -v virtual, com uma thread portadora por core de CORES
+  VTHREADS=""
+  BACKEND=""
+  if [[ $4 == "virtual" ]]; then
+    NCORES=0
+    for c in ${CORES//,/ }; do
+      if [[ $c == *-* ]]; then
+        NCORES=$(( NCORES + ${c#*-} - ${c%-*} + 1 ))
+      else
+        NCORES=$(( NCORES + 1 ))
+      fi
+    done
+    VTHREADS="-Djdk.virtualThreadScheduler.parallelism=${NCORES}"
+    BACKEND=" -v virtual"
+  fi
   #numactl --physcpubind=${CORES} java 
   #alterar caminhos
   #export MOA_HOME=/opt/data/moa-LAST
@@ -12,27 +27,27 @@ function Y {
   onlyname=${faux%%.*}
   echo "$2  $1 $3"
   if [[ $2 == *"MAX"* ]]; then
-    IDENT="chunk"
+    IDENT="chunk${4:+-$4}"
     echo "$RESULT_DIR/${IDENT}-${onlyname}-${2##*.}-100-8-50"
-    numactl --physcpubind=${CORES} java -Xshare:off -XX:+UseParallelGC -Xmx$Memory -cp $MOA_HOME/lib/:$MOA_HOME/lib/moa.jar moa.DoTask "EvaluateInterleavedTestThenTrainChunks -l ($2 -s 100 -c 8) -s (ArffFileStream -f $1) -c 50 -e (BasicClassificationPerformanceEvaluator -o -p -r -f) -i -1 -d $RESULT_DIR/dump-${onlyname}-${2##*.}-100-8-50" > ${RESULT_DIR}/term-${IDENT}-${onlyname}-${2##*.}-100-8-50
+    numactl --physcpubind=${CORES} java -Xshare:off -XX:+UseParallelGC -Xmx$Memory $VTHREADS -cp $MOA_HOME/lib/:$MOA_HOME/lib/moa.jar moa.DoTask "EvaluateInterleavedTestThenTrainChunks -l ($2 -s 100 -c 8${BACKEND}) -s (ArffFileStream -f $1) -c 50 -e (BasicClassificationPerformanceEvaluator -o -p -r -f) -i -1 -d $RESULT_DIR/dump-${onlyname}-${2##*.}-100-8-50" > ${RESULT_DIR}/term-${IDENT}-${onlyname}-${2##*.}-100-8-50
     echo "$RESULT_DIR/${IDENT}-${onlyname}-${2##*.}-100-8-500"
-    numactl --physcpubind=${CORES} java -Xshare:off -XX:+UseParallelGC -Xmx$Memory -cp $MOA_HOME/lib/:$MOA_HOME/lib/moa.jar moa.DoTask "EvaluateInterleavedTestThenTrainChunks -l ($2 -s 100 -c 8) -s (ArffFileStream -f $1) -c 500 -e (BasicClassificationPerformanceEvaluator -o -p -r -f) -i -1 -d $RESULT_DIR/dump-${onlyname}-${2##*.}-100-8-500" > ${RESULT_DIR}/term-${IDENT}-${onlyname}-${2##*.}-100-8-500
+    numactl --physcpubind=${CORES} java -Xshare:off -XX:+UseParallelGC -Xmx$Memory $VTHREADS -cp $MOA_HOME/lib/:$MOA_HOME/lib/moa.jar moa.DoTask "EvaluateInterleavedTestThenTrainChunks -l ($2 -s 100 -c 8${BACKEND}) -s (ArffFileStream -f $1) -c 500 -e (BasicClassificationPerformanceEvaluator -o -p -r -f) -i -1 -d $RESULT_DIR/dump-${onlyname}-${2##*.}-100-8-500" > ${RESULT_DIR}/term-${IDENT}-${onlyname}-${2##*.}-100-8-500
     echo "$RESULT_DIR/${IDENT}-${onlyname}-${2##*.}-100-8-2000"
-    numactl --physcpubind=${CORES} java -Xshare:off -XX:+UseParallelGC -Xmx$Memory -cp $MOA_HOME/lib/:$MOA_HOME/lib/moa.jar moa.DoTask "EvaluateInterleavedTestThenTrainChunks -l ($2 -s 100 -c 8) -s (ArffFileStream -f $1) -c 2000 -e (BasicClassificationPerformanceEvaluator -o -p -r -f) -i -1 -d $RESULT_DIR/dump-${onlyname}-${2##*.}-100-8-2000" > ${RESULT_DIR}/term-${IDENT}-${onlyname}-${2##*.}-100-8-2000
+    numactl --physcpubind=${CORES} java -Xshare:off -XX:+UseParallelGC -Xmx$Memory $VTHREADS -cp $MOA_HOME/lib/:$MOA_HOME/lib/moa.jar moa.DoTask "EvaluateInterleavedTestThenTrainChunks -l ($2 -s 100 -c 8${BACKEND}) -s (ArffFileStream -f $1) -c 2000 -e (BasicClassificationPerformanceEvaluator -o -p -r -f) -i -1 -d $RESULT_DIR/dump-${onlyname}-${2##*.}-100-8-2000" > ${RESULT_DIR}/term-${IDENT}-${onlyname}-${2##*.}-100-8-2000
 
     # ENSEMBLE SIZE 150
     echo "$RESULT_DIR/${IDENT}-${onlyname}-${1##*.}-150-8-50"
-    numactl --physcpubind=${CORES} java -Xshare:off -XX:+UseParallelGC -Xmx$Memory -cp $MOA_HOME/lib/:$MOA_HOME/lib/moa.jar moa.DoTask "EvaluateInterleavedTestThenTrainChunks -l ($2 -s 150 -c 8) -s (ArffFileStream -f $1) -c 50 -e (BasicClassificationPerformanceEvaluator -o -p -r -f) -i -1 -d $RESULT_DIR/dump-${onlyname}-${2##*.}-150-8-50" > ${RESULT_DIR}/term-${IDENT}-${onlyname}-${2##*.}-150-8-50
+    numactl --physcpubind=${CORES} java -Xshare:off -XX:+UseParallelGC -Xmx$Memory $VTHREADS -cp $MOA_HOME/lib/:$MOA_HOME/lib/moa.jar moa.DoTask "EvaluateInterleavedTestThenTrainChunks -l ($2 -s 150 -c 8${BACKEND}) -s (ArffFileStream -f $1) -c 50 -e (BasicClassificationPerformanceEvaluator -o -p -r -f) -i -1 -d $RESULT_DIR/dump-${onlyname}-${2##*.}-150-8-50" > ${RESULT_DIR}/term-${IDENT}-${onlyname}-${2##*.}-150-8-50
     echo "$RESULT_DIR/${IDENT}-${onlyname}-${2##*.}-150-8-500"
-    numactl --physcpubind=${CORES} java -Xshare:off -XX:+UseParallelGC -Xmx$Memory -cp $MOA_HOME/lib/:$MOA_HOME/lib/moa.jar moa.DoTask "EvaluateInterleavedTestThenTrainChunks -l ($2 -s 150 -c 8) -s (ArffFileStream -f $1) -c 500 -e (BasicClassificationPerformanceEvaluator -o -p -r -f) -i -1 -d $RESULT_DIR/dump-${onlyname}-${2##*.}-150-8-500" > ${RESULT_DIR}/term-${IDENT}-${onlyname}-${2##*.}-150-8-500
+    numactl --physcpubind=${CORES} java -Xshare:off -XX:+UseParallelGC -Xmx$Memory $VTHREADS -cp $MOA_HOME/lib/:$MOA_HOME/lib/moa.jar moa.DoTask "EvaluateInterleavedTestThenTrainChunks -l ($2 -s 150 -c 8${BACKEND}) -s (ArffFileStream -f $1) -c 500 -e (BasicClassificationPerformanceEvaluator -o -p -r -f) -i -1 -d $RESULT_DIR/dump-${onlyname}-${2##*.}-150-8-500" > ${RESULT_DIR}/term-${IDENT}-${onlyname}-${2##*.}-150-8-500
     echo "$RESULT_DIR/${IDENT}-${onlyname}-${2##*.}-150-8-2000"
-    numactl --physcpubind=${CORES} java -Xshare:off -XX:+UseParallelGC -Xmx$Memory -cp $MOA_HOME/lib/:$MOA_HOME/lib/moa.jar moa.DoTask "EvaluateInterleavedTestThenTrainChunks -l ($2 -s 150 -c 8) -s (ArffFileStream -f $1) -c 2000 -e (BasicClassificationPerformanceEvaluator -o -p -r -f) -i -1 -d $RESULT_DIR/dump-${onlyname}-${2##*.}-150-8-2000" > ${RESULT_DIR}/term-${IDENT}-${onlyname}-${2##*.}-150-8-2000
+    numactl --physcpubind=${CORES} java -Xshare:off -XX:+UseParallelGC -Xmx$Memory $VTHREADS -cp $MOA_HOME/lib/:$MOA_HOME/lib/moa.jar moa.DoTask "EvaluateInterleavedTestThenTrainChunks -l ($2 -s 150 -c 8${BACKEND}) -s (ArffFileStream -f $1) -c 2000 -e (BasicClassificationPerformanceEvaluator -o -p -r -f) -i -1 -d $RESULT_DIR/dump-${onlyname}-${2##*.}-150-8-2000" > ${RESULT_DIR}/term-${IDENT}-${onlyname}-${2##*.}-150-8-2000
   elif [[ ${2} == *"RUNPER"* ]]; then
-    IDENT="interleaved"
+    IDENT="interleaved${4:+-$4}"
     echo "$RESULT_DIR/${IDENT}-${onlyname}-${2##*.}-100-8-1"
-    numactl --physcpubind=${CORES} java -Xshare:off -XX:+UseParallelGC -Xmx$Memory -cp $MOA_HOME/lib/:$MOA_HOME/lib/moa.jar moa.DoTask "EITTTExperiments -l ($2 -s 100 -c 8) -s (ArffFileStream -f $1) -e (BasicClassificationPerformanceEvaluator -o -p -r -f) -i -1 -d $RESULT_DIR/dump-${onlyname}-${2##*.}-100-8-1" > ${RESULT_DIR}/term-${IDENT}-${onlyname}-${2##*.}-100-8-1
+    numactl --physcpubind=${CORES} java -Xshare:off -XX:+UseParallelGC -Xmx$Memory $VTHREADS -cp $MOA_HOME/lib/:$MOA_HOME/lib/moa.jar moa.DoTask "EITTTExperiments -l ($2 -s 100 -c 8${BACKEND}) -s (ArffFileStream -f $1) -e (BasicClassificationPerformanceEvaluator -o -p -r -f) -i -1 -d $RESULT_DIR/dump-${onlyname}-${2##*.}-100-8-1" > ${RESULT_DIR}/term-${IDENT}-${onlyname}-${2##*.}-100-8-1
     echo "$RESULT_DIR/${IDENT}-${onlyname}-${2##*.}-150-8-1"
-    numactl --physcpubind=${CORES} java -Xshare:off -XX:+UseParallelGC -Xmx$Memory -cp $MOA_HOME/lib/:$MOA_HOME/lib/moa.jar moa.DoTask "EITTTExperiments -l ($2 -s 150 -c 8) -s (ArffFileStream -f $1) -e (BasicClassificationPerformanceEvaluator -o -p -r -f) -i -1 -d $RESULT_DIR/dump-${onlyname}-${2##*.}-150-8-1" > ${RESULT_DIR}/term-${IDENT}-${onlyname}-${2##*.}-150-8-1
+    numactl --physcpubind=${CORES} java -Xshare:off -XX:+UseParallelGC -Xmx$Memory $VTHREADS -cp $MOA_HOME/lib/:$MOA_HOME/lib/moa.jar moa.DoTask "EITTTExperiments -l ($2 -s 150 -c 8${BACKEND}) -s (ArffFileStream -f $1) -e (BasicClassificationPerformanceEvaluator -o -p -r -f) -i -1 -d $RESULT_DIR/dump-${onlyname}-${2##*.}-150-8-1" > ${RESULT_DIR}/term-${IDENT}-${onlyname}-${2##*.}-150-8-1
   else
     IDENT="interleaved"
     echo "$RESULT_DIR/${IDENT}-${onlyname}-${2##*.}-100-1-1"
@@ -65,9 +80,9 @@ function X {
   elif [[ $2 == "SRP" ]]; then
     ID=15
   fi
-  Y $1 ${algs[${ID}]} $3
-  Y $1 ${algs[$(( ID+1 ))]} $3
-  Y $1 ${algs[$(( ID+2 ))]} $3
+  Y $1 ${algs[${ID}]} $3 $4
+  Y $1 ${algs[$(( ID+1 ))]} $3 $4
+  Y $1 ${algs[$(( ID+2 ))]} $3 $4
 }
 
 # alterar para o caminho do HD/scratch
@@ -0,0 +1,36 @@
+/*
+ *    BatchPredictor.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers;
+
+import com.yahoo.labs.samoa.instances.Instances;
+
+/**
+ * Learners that can predict a whole chunk at once.
+ *
+ * <p>The chunk based evaluation tasks use it, when the learner implements it,
+ * to test a chunk with a single call instead of one getVotesForInstance()
+ * call per instance.</p>
+ */
+public interface BatchPredictor {
+
+    /***
+     * Votes for every instance of the chunk, row i holds the votes for instance i.
+     * The rows may be reused by the next call, so they must be consumed before it.
+     */
+    double[][] getVotesForInstances(Instances instances);
+}
@@ -0,0 +1,33 @@
+/*
+ *    TrainingThreads.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers;
+
+/**
+ * Learners that train on several threads at once.
+ *
+ * <p>The adaptive chunk size of the chunk based evaluation tasks measures how
+ * busy these threads are during the training, a learner that does not
+ * implement it trains on the calling thread only.</p>
+ */
+public interface TrainingThreads {
+
+    /***
+     * Number of threads that can train at the same time, 1 when the calling thread trains alone.
+     */
+    int getTrainingThreads();
+}
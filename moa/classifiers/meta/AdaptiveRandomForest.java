@@ -29,6 +29,7 @@ import moa.core.DoubleVector;
 import moa.core.InstanceExample;
 import moa.core.Measurement;
 import moa.core.MiscUtils;
+import moa.core.Utils;
 import moa.options.ClassOption;
 
 import com.github.javacliparser.FloatOption;
@@ -176,7 +177,7 @@ public class AdaptiveRandomForest extends AbstractClassifier implements MultiCla
         for (int i = 0 ; i < this.ensemble.length ; i++) {
             DoubleVector vote = new DoubleVector(this.ensemble[i].getVotesForInstance(instance));
             InstanceExample example = new InstanceExample(instance);
-            this.ensemble[i].evaluator.addResult(example, vote.getArrayRef());
+            this.ensemble[i].addResult(example, vote.getArrayRef());
             int k = MiscUtils.poisson(this.lambdaOption.getValue(), this.classifierRandom);
             if (k > 0) {
                 if(this.executor != null) {
@@ -208,22 +209,15 @@ public class AdaptiveRandomForest extends AbstractClassifier implements MultiCla
         Instance testInstance = instance.copy();
         if(this.ensemble == null) 
             initEnsemble(testInstance);
-        DoubleVector combinedVote = new DoubleVector();
+        return ParallelVoting.combine(null, this.ensemble.length, testInstance, this::addMemberVote);
+    }
 
-        for(int i = 0 ; i < this.ensemble.length ; ++i) {
-            DoubleVector vote = new DoubleVector(this.ensemble[i].getVotesForInstance(testInstance));
-            if (vote.sumOfValues() > 0.0) {
-                vote.normalize();
-                double acc = this.ensemble[i].evaluator.getPerformanceMeasurements()[1].getValue();
-                if(! this.disableWeightedVote.isSet() && acc > 0.0) {                        
-                    for(int v = 0 ; v < vote.numValues() ; ++v) {
-                        vote.setValue(v, vote.getValue(v) * acc);
-                    }
-                }
-                combinedVote.addValues(vote);
-            }
-        }
-        return combinedVote.getArrayRef();
+    /***
+     * Adds the normalized vote of member i to row, weighted by its accuracy unless disableWeightedVote is set.
+     */
+    protected void addMemberVote(int i, Instance instance, double[] row) {
+        double acc = this.disableWeightedVote.isSet() ? 1.0 : this.ensemble[i].getAccuracy();
+        ParallelVoting.addNormalized(this.ensemble[i].getVotesForInstance(instance), acc > 0.0 ? acc : 1.0, row);
     }
 
     @Override
@@ -356,6 +350,9 @@ public class AdaptiveRandomForest extends AbstractClassifier implements MultiCla
         protected ARFBaseLearner bkgLearner;
         // Statistics
         public BasicClassificationPerformanceEvaluator evaluator;
+        // Running accuracy, the evaluator's "classifications correct (percent)" kept as primitives
+        protected double weightCorrect;
+        protected long instancesEvaluated;
         protected int numberOfDriftsDetected;
         protected int numberOfWarningsDetected;
 
@@ -409,6 +406,29 @@ public class AdaptiveRandomForest extends AbstractClassifier implements MultiCla
                 this.driftDetectionMethod = ((ChangeDetector) getPreparedClassOption(this.driftOption)).copy();
             }
             this.evaluator.reset();
+            this.weightCorrect = 0.0;
+            this.instancesEvaluated = 0;
+        }
+
+        /***
+         * Adds the prediction to the evaluator and to the running accuracy read by the weighted vote,
+         * so the vote does not build the evaluator's Measurement[] for every tree on every prediction.
+         */
+        public void addResult(InstanceExample example, double[] votes) {
+            this.evaluator.addResult(example, votes);
+            Instance instance = example.getData();
+            if (!instance.classIsMissing() && instance.weight() > 0.0) {
+                this.instancesEvaluated++;
+                if (Utils.maxIndex(votes) == (int) instance.classValue())
+                    this.weightCorrect += instance.weight();
+            }
+        }
+
+        /***
+         * Same value as evaluator.getPerformanceMeasurements()[1], but 0 instead of NaN before the first result.
+         */
+        public double getAccuracy() {
+            return this.instancesEvaluated > 0 ? this.weightCorrect / this.instancesEvaluated * 100.0 : 0.0;
         }
 
         public void trainOnInstance(Instance instance, double weight, long instancesSeen) {
@@ -461,8 +481,7 @@ public class AdaptiveRandomForest extends AbstractClassifier implements MultiCla
         }
 
         public double[] getVotesForInstance(Instance instance) {
-            DoubleVector vote = new DoubleVector(this.classifier.getVotesForInstance(instance));
-            return vote.getArrayRef();
+            return this.classifier.getVotesForInstance(instance);
         }
 
         @Override
@@ -0,0 +1,201 @@
+/*
+ *    AdaptiveRandomForestParallel.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.meta;
+
+import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import moa.capabilities.Capability;
+import moa.capabilities.ImmutableCapabilities;
+import moa.classifiers.BatchPredictor;
+import moa.classifiers.Multithreading;
+import moa.classifiers.TrainingThreads;
+import moa.core.DoubleVector;
+import moa.core.InstanceExample;
+import moa.core.Measurement;
+import moa.evaluation.BasicClassificationPerformanceEvaluator;
+
+/**
+ * Adaptive Random Forest, run by an {@link EnsembleEngine} with the execution strategy chosen by -e.
+ *
+ * <p>The drift and warning detectors stay inside each tree, so a member
+ * never signals a change to the ensemble. The forest is built on the first
+ * instance, the engine with it. -c is the numberOfJobs option of
+ * AdaptiveRandomForest, with the default of {@link ParallelEnsemble}.</p>
+ *
+ * <p>Parameters (besides the ones of AdaptiveRandomForest):</p> <ul>
+ * <li>-e : Execution strategy: sequential, instance, chunk, forkjoin, async, pinned or snapshot</li>
+ * <li>-v : Train the members on platform threads or virtual threads</li>
+ * <li>-k : Depth of the member queues of the async strategy</li>
+ * <li>-b : Bind the workers of the chunk and pinned strategies to CPUs or NUMA nodes</li> </ul>
+ */
+public class AdaptiveRandomForestParallel extends AdaptiveRandomForest implements Multithreading, BatchPredictor,
+        TrainingThreads, EnsembleEngine.Core {
+
+    @Override
+    public String getPurposeString() {
+        return "Adaptive Random Forest algorithm for evolving data streams from Gomes et al., with a choice of parallel execution strategies.";
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    protected final ParallelEnsemble parallel = new ParallelEnsemble(defaultExecutionStrategy());
+
+    {
+        // -c stays the option of AdaptiveRandomForest, with the default of the strategy
+        this.numberOfJobsOption = this.parallel.numberOfJobsOption;
+    }
+
+    public MultiChoiceOption executionStrategyOption = this.parallel.executionStrategyOption;
+
+    public MultiChoiceOption executorBackendOption = this.parallel.executorBackendOption;
+
+    public IntOption asyncQueueDepthOption = this.parallel.asyncQueueDepthOption;
+
+    public MultiChoiceOption affinityOption = this.parallel.affinityOption;
+
+    protected PoissonSampler[] samplers;
+
+    /***
+     * Default of -e, read while the options are created; the classes named after a strategy override it.
+     */
+    protected int defaultExecutionStrategy() {
+        return EnsembleEngine.INSTANCE;
+    }
+
+    @Override
+    public void resetLearningImpl() {
+        // not super.resetLearningImpl(), which creates the thread pool of AdaptiveRandomForest
+        this.parallel.shutdown();
+        this.ensemble = null;
+        this.subspaceSize = 0;
+        this.instancesSeen = 0;
+        this.evaluator = new BasicClassificationPerformanceEvaluator();
+    }
+
+    @Override
+    protected void initEnsemble(Instance instance) {
+        super.initEnsemble(instance);
+        this.samplers = PoissonSampler.forMembers(this.lambdaOption.getValue(), this.randomSeed, this.ensemble.length);
+        this.parallel.reset(this, this.ensemble.length);
+    }
+
+    @Override
+    public void trainOnInstanceImpl(Instance instance) {
+        ++this.instancesSeen;
+        if (this.ensemble == null)
+            initEnsemble(instance);
+        this.parallel.train(instance);
+    }
+
+    @Override
+    public void trainOnInstances(Instances instances) {
+        if (instances.numInstances() == 0)
+            return;
+        if (this.ensemble == null)
+            initEnsemble(instances.instance(0));
+        this.instancesSeen += instances.numInstances();
+        this.parallel.train(instances);
+    }
+
+    @Override
+    public PoissonSampler[] getSamplers() {
+        return this.samplers;
+    }
+
+    @Override
+    public boolean needsEveryInstance() {
+        // the evaluator of a member sees every instance
+        return true;
+    }
+
+    /***
+     * Adds the prediction of member on instance to its evaluator then trains it with its Poisson weight.
+     */
+    @Override
+    public boolean trainMember(int member, Instance instance, int k, long seq) {
+        DoubleVector vote = new DoubleVector(this.ensemble[member].getVotesForInstance(instance));
+        InstanceExample example = new InstanceExample(instance);
+        this.ensemble[member].addResult(example, vote.getArrayRef());
+        if (k > 0)
+            this.ensemble[member].trainOnInstance(instance, k, seq);
+        return false;
+    }
+
+    @Override
+    public void onChange(long seq) {
+    }
+
+    @Override
+    public void addVote(int member, Instance instance, double[] row) {
+        addMemberVote(member, instance, row);
+    }
+
+    @Override
+    public double[] getVotesForInstance(Instance instance) {
+        Instance testInstance = instance.copy();
+        if (this.ensemble == null)
+            initEnsemble(testInstance);
+        return this.parallel.votes(testInstance);
+    }
+
+    @Override
+    public double[][] getVotesForInstances(Instances instances) {
+        if (this.ensemble == null) {
+            if (instances.numInstances() == 0)
+                return new double[0][];
+            initEnsemble(instances.instance(0));
+        }
+        return this.parallel.votes(instances);
+    }
+
+    @Override
+    protected Measurement[] getModelMeasurementsImpl() {
+        this.parallel.awaitQuiescence();
+        return super.getModelMeasurementsImpl();
+    }
+
+    @Override
+    public int getTrainingThreads() {
+        return this.parallel.getTrainingThreads(this.ensembleSizeOption.getValue());
+    }
+
+    @Override
+    public void getModelDescription(StringBuilder out, int indent) {
+        this.parallel.getModelDescription(out);
+    }
+
+    @Override
+    public ImmutableCapabilities defineImmutableCapabilities() {
+        if (this.getClass() == AdaptiveRandomForestParallel.class)
+            return new ImmutableCapabilities(Capability.VIEW_STANDARD, Capability.VIEW_LITE);
+        else
+            return new ImmutableCapabilities(Capability.VIEW_STANDARD);
+    }
+
+    // Avoids Thread Leaking
+    @Override
+    public void trainingHasEnded() {
+        this.parallel.shutdown();
+    }
+
+    @Override
+    public void init() {
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *    DriftSignals.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.meta;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+
+/**
+ * Drift events raised by the training threads of a chunk based ensemble.
+ *
+ * <p>A training thread that sees its ADWIN estimation grow calls
+ * {@link #signal(int, int)} with its member index and the position of the
+ * instance in the chunk. The position is set in a lock-free bitmap and the
+ * member's counter is incremented, so concurrent signals are never lost nor
+ * merged into a single flag. After the batch, the coordinating thread calls
+ * {@link #drain(IntConsumer)}, which visits every drifting position once, in
+ * chunk order, and clears the bitmap for the next batch.</p>
+ */
+public class DriftSignals {
+
+    // bit i of word i / 64 is set when some member signalled a drift at chunk position i
+    private AtomicLongArray positions;
+
+    // signals raised by each member since the last reset of the ensemble
+    private final AtomicLongArray memberSignals;
+
+    // only touched by the coordinating thread
+    private long driftingPositions;
+
+    public DriftSignals(int numberOfMembers) {
+        this.positions = new AtomicLongArray(1);
+        this.memberSignals = new AtomicLongArray(numberOfMembers);
+    }
+
+    /***
+     * Makes room for a chunk of chunkSize instances. Called by the coordinating thread before training.
+     */
+    public void prepare(int chunkSize) {
+        int words = (chunkSize + 63) >>> 6;
+        if (this.positions.length() < words)
+            this.positions = new AtomicLongArray(words);
+    }
+
+    /***
+     * Records a drift seen by member at the given chunk position. Safe to call from any thread.
+     */
+    public void signal(int member, int position) {
+        int word = position >>> 6;
+        long bit = 1L << position;
+        long current = this.positions.get(word);
+        while ((current & bit) == 0 && !this.positions.compareAndSet(word, current, current | bit))
+            current = this.positions.get(word);
+        this.memberSignals.incrementAndGet(member);
+    }
+
+    /***
+     * Visits the drifting positions of the last batch in chunk order and clears them.
+     * Called by the coordinating thread once the training threads are done.
+     *
+     * @return the number of drifting positions
+     */
+    public int drain(IntConsumer onPosition) {
+        int drifts = 0;
+        for (int word = 0; word < this.positions.length(); word++) {
+            long bits = this.positions.getAndSet(word, 0L);
+            while (bits != 0L) {
+                int position = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                drifts++;
+                onPosition.accept(position);
+            }
+        }
+        this.driftingPositions += drifts;
+        return drifts;
+    }
+
+    public long getDriftingPositions() {
+        return this.driftingPositions;
+    }
+
+    public long getMemberSignals(int member) {
+        return this.memberSignals.get(member);
+    }
+
+    public long getTotalSignals() {
+        long total = 0;
+        for (int i = 0; i < this.memberSignals.length(); i++)
+            total += this.memberSignals.get(i);
+        return total;
+    }
+}
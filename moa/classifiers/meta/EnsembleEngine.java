@@ -0,0 +1,529 @@
+/*
+ *    EnsembleEngine.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.meta;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the training and the voting of an ensemble with one of the execution strategies of the
+ * Executor, CHUNK, MAXChunk, MC and RUNPER copies of the algorithms.
+ *
+ * <p>The algorithm is a {@link Core}: how one member trains on one instance,
+ * how one member votes, and what the ensemble does when a member signals a
+ * change. The engine draws the weight of each member from the member's own
+ * {@link PoissonSampler}, so every strategy trains the same models for a given
+ * seed, in the same order for each member; they differ only in the threads and
+ * the barriers. A member that draws 0 is not run at all, not even queued with
+ * the async strategy, unless the core needs every instance (e.g. to feed the
+ * ADWIN of the member):</p>
+ * <ul>
+ * <li>sequential: the calling thread trains the members one after the other.</li>
+ * <li>instance: one task per member and invokeAll() per instance on a pool of
+ * -c threads, as the Executor classes.</li>
+ * <li>chunk: one task per member training on the whole chunk and invokeAll()
+ * per chunk, as the CHUNK and MAXChunk classes (they only differ by the chunk
+ * size the task gives). With -c 0 or 1 the calling thread trains one member
+ * after the other on the whole chunk, as the SequentialSmartChunk classes.</li>
+ * <li>pinned: the chunk strategy on -c long-lived workers, each owning a fixed
+ * partition of the members ({@link PinnedChunkScheduler}); binding the workers
+ * to CPUs or NUMA nodes implies it.</li>
+ * <li>forkjoin: the members of every instance split recursively on a
+ * ForkJoinPool of -c threads, as the MC classes. With -c 0 the common
+ * ForkJoinPool, one thread per processor, as the parallel streams of the MC
+ * classes did.</li>
+ * <li>async: per-member queues ({@link MemberPipeline}), as the RUNPER
+ * classes. A prediction is queued behind the instances each member has yet to
+ * train on, so it sees the same models as the other strategies.</li>
+ * <li>snapshot: the async strategy with predictions that read the members
+ * without waiting for them, at most the queue depth (-k) behind.</li>
+ * </ul>
+ *
+ * <p>The change handling of the ensemble (e.g. resetting the member with the
+ * worst ADWIN estimation) always runs on the calling thread with every member
+ * idle: after the instance with the per-instance strategies, after the chunk,
+ * once per drifting position in chunk order, with the chunk strategy, and
+ * before the next instance is queued with the async strategy, once per
+ * drifting instance as well but later: the members may have trained on a few
+ * more instances in between.</p>
+ *
+ * <p>With -c 1, and -c 0 but for the forkjoin strategy, every other strategy is sequential.</p>
+ */
+public class EnsembleEngine {
+
+    public static final int SEQUENTIAL = 0;
+
+    public static final int INSTANCE = 1;
+
+    public static final int CHUNK = 2;
+
+    public static final int FORK_JOIN = 3;
+
+    public static final int ASYNC = 4;
+
+    public static final int PINNED = 5;
+
+    public static final int SNAPSHOT = 6;
+
+    public static final String[] STRATEGIES = {"sequential", "instance", "chunk", "forkjoin", "async", "pinned",
+            "snapshot"};
+
+    public static final String[] STRATEGY_DESCRIPTIONS = {
+            "Members trained one after the other by the calling thread.",
+            "One task per member and invokeAll() per instance (Executor).",
+            "One task per member and invokeAll() per chunk (CHUNK, MAXChunk).",
+            "Members of every instance split recursively on a ForkJoinPool (MC).",
+            "Per-member queues, predictions wait for the members to be up to date (RUNPER).",
+            "Chunk strategy on -c long-lived workers, each owning a partition of the members.",
+            "Per-member queues, predictions do not wait for the members (up to -k instances behind)."};
+
+    /***
+     * The algorithm run by the engine.
+     */
+    public interface Core extends ParallelVoting.MemberVote {
+
+        /***
+         * The sampler of each member, the engine draws the weights from them; null when the members
+         * draw their weights themselves, in trainMember().
+         */
+        PoissonSampler[] getSamplers();
+
+        /***
+         * True when the members must also see the instances they draw a weight of 0 for.
+         */
+        boolean needsEveryInstance();
+
+        /***
+         * Trains member on instance, the seq-th instance of the stream, with the weight drawn for it
+         * (0 without samplers). instance is the member's own {@link SharedChunk.View}, refilled for
+         * the next instance: the core may change it, e.g. set its weight, instead of copying it.
+         *
+         * @return true when the member signals a change the ensemble must handle
+         */
+        boolean trainMember(int member, Instance instance, int weight, long seq);
+
+        /***
+         * Handles a change signalled on the seq-th instance. Run by the calling thread, every member idle.
+         */
+        void onChange(long seq);
+    }
+
+    private final Core core;
+
+    private final PoissonSampler[] samplers;
+
+    private final boolean everyInstance;
+
+    private final int numberOfMembers;
+
+    // the instance each member trains on, only used by the thread training the member
+    private final SharedChunk.View[] views;
+
+    private final int strategy;
+
+    // async strategy: predictions read the members without waiting for them
+    private final boolean snapshot;
+
+    private ExecutorService pool;
+
+    private ForkJoinPool forkJoinPool;
+
+    private PinnedChunkScheduler scheduler;
+
+    private MemberPipeline pipeline;
+
+    private List<Callable<Integer>> memberTasks;
+
+    private DriftSignals driftSignals;
+
+    // per-instance strategies: the instance being trained and the members that signalled a change
+    private Instance current;
+
+    private boolean[] changed;
+
+    // chunk strategy: the chunk being trained and the seq of its first instance
+    private SharedChunk chunk;
+
+    private long chunkStart;
+
+    // chunk strategy: the weights of each member for the whole chunk, reused from chunk to chunk
+    private int[][] chunkWeights;
+
+    // async strategy: instances on which a member signalled a change, added by the member tasks
+    private final ConcurrentSkipListSet<Long> pendingChanges = new ConcurrentSkipListSet<>();
+
+    private long seq;
+
+    private long changes;
+
+    /***
+     * Engine with -c numberOfJobs threads (-1 for all the processors).
+     *
+     * @param backend        one of the EnsembleExecutors backends, for the instance, chunk and async pools
+     * @param asyncDepth     depth of the member queues of the async strategy
+     * @param affinityMode   one of the ThreadAffinity modes, binds the workers of the pinned strategy
+     */
+    public EnsembleEngine(int strategy, int numberOfJobs, int backend, int asyncDepth, int affinityMode,
+                          int numberOfMembers, Core core) {
+        this.core = core;
+        this.samplers = core.getSamplers();
+        this.everyInstance = core.needsEveryInstance() || this.samplers == null;
+        this.numberOfMembers = numberOfMembers;
+        this.views = new SharedChunk.View[numberOfMembers];
+        for (int i = 0; i < numberOfMembers; i++)
+            this.views[i] = new SharedChunk.View();
+        if (numberOfJobs == -1)
+            numberOfJobs = Runtime.getRuntime().availableProcessors();
+        boolean singleThread = numberOfJobs == 0 || numberOfJobs == 1;
+        // -c 0 meant all the processors for the MC classes
+        boolean commonPool = strategy == FORK_JOIN && numberOfJobs == 0;
+        // bound workers are always pinned, the pinned strategy is the chunk strategy on long-lived workers
+        boolean pinned = strategy == PINNED || (strategy == CHUNK && affinityMode != ThreadAffinity.NONE);
+        if (strategy == PINNED)
+            strategy = CHUNK;
+        this.snapshot = strategy == SNAPSHOT;
+        if (strategy == SNAPSHOT)
+            strategy = ASYNC;
+        // SINGLE_THREAD and requesting for only 1 thread are equivalent, the chunk strategy keeps its member order.
+        this.strategy = singleThread && strategy != CHUNK && !commonPool ? SEQUENTIAL : strategy;
+        this.changed = new boolean[numberOfMembers];
+        switch (this.strategy) {
+            case INSTANCE:
+                this.pool = EnsembleExecutors.newFixedThreadPool(backend, numberOfJobs);
+                this.memberTasks = new ArrayList<>(numberOfMembers);
+                for (int i = 0; i < numberOfMembers; i++) {
+                    final int member = i;
+                    this.memberTasks.add(() -> {
+                        trainCurrent(member);
+                        return 0;
+                    });
+                }
+                break;
+            case CHUNK:
+                this.driftSignals = new DriftSignals(numberOfMembers);
+                this.chunkWeights = new int[numberOfMembers][];
+                if (singleThread)
+                    break;
+                if (pinned) {
+                    this.scheduler = new PinnedChunkScheduler(numberOfJobs, numberOfMembers, 2, affinityMode,
+                            (member, chunk) -> trainChunk(member));
+                } else {
+                    this.pool = EnsembleExecutors.newFixedThreadPool(backend, numberOfJobs);
+                    this.memberTasks = new ArrayList<>(numberOfMembers);
+                    for (int i = 0; i < numberOfMembers; i++) {
+                        final int member = i;
+                        this.memberTasks.add(() -> {
+                            trainChunk(member);
+                            return 0;
+                        });
+                    }
+                }
+                break;
+            case FORK_JOIN:
+                // shutdown() has no effect on the common pool
+                this.forkJoinPool = commonPool ? ForkJoinPool.commonPool() : new ForkJoinPool(numberOfJobs);
+                break;
+            case ASYNC:
+                this.pool = EnsembleExecutors.newWorkStealingPool(backend, numberOfJobs);
+                this.pipeline = new MemberPipeline(this.pool, numberOfMembers, asyncDepth, this.snapshot, core,
+                        (member, instance, weight, seq) -> {
+                            if (core.trainMember(member, this.views[member].of(instance), (int) weight, seq))
+                                this.pendingChanges.add(seq);
+                        });
+                break;
+        }
+    }
+
+    /***
+     * Threads training the members at once with strategy and -c numberOfJobs: one per member at most,
+     * the calling thread alone when the members are trained sequentially.
+     */
+    public static int trainingThreads(int strategy, int numberOfJobs, int numberOfMembers) {
+        if (numberOfJobs == -1)
+            numberOfJobs = Runtime.getRuntime().availableProcessors();
+        if (strategy == FORK_JOIN && numberOfJobs == 0)
+            numberOfJobs = ForkJoinPool.getCommonPoolParallelism();
+        if (strategy == SEQUENTIAL || numberOfJobs == 0 || numberOfJobs == 1)
+            return 1;
+        return Math.max(1, Math.min(numberOfJobs, numberOfMembers));
+    }
+
+    public int getStrategy() {
+        return this.strategy;
+    }
+
+    /***
+     * Number of instances trained on.
+     */
+    public long getInstancesSeen() {
+        return this.seq;
+    }
+
+    /***
+     * Numbers the next instance seq + 1, for an engine started on members already trained on seq instances.
+     */
+    public void resumeAfter(long seq) {
+        this.seq = seq;
+    }
+
+    /***
+     * Number of times the change handling of the core ran.
+     */
+    public long getChanges() {
+        return this.changes;
+    }
+
+    /***
+     * Number of changes signalled by the members with the chunk strategy, one per member and drifting instance.
+     */
+    public long getDriftSignals() {
+        return this.driftSignals == null ? 0 : this.driftSignals.getTotalSignals();
+    }
+
+    /***
+     * Where each worker of the pinned strategy runs, null when the workers are not bound.
+     */
+    public String placementReport() {
+        return this.scheduler == null ? null : this.scheduler.placementReport();
+    }
+
+    /***
+     * Trains every member on instance.
+     */
+    public void train(Instance instance) {
+        long seq = ++this.seq;
+        switch (this.strategy) {
+            case ASYNC:
+                handlePendingChanges();
+                // drawn here, so the members with nothing to train on are not woken
+                for (int i = 0; i < this.numberOfMembers; i++) {
+                    int weight = drawWeight(i);
+                    if (weight > 0 || this.everyInstance)
+                        this.pipeline.train(i, instance, weight, seq);
+                }
+                return;
+            case INSTANCE:
+                this.current = instance;
+                invokeAll(this.memberTasks);
+                break;
+            case FORK_JOIN:
+                this.current = instance;
+                this.forkJoinPool.invoke(new MemberRange(0, this.numberOfMembers));
+                break;
+            case SEQUENTIAL:
+            case CHUNK:
+                // chunk: a single instance is trained as the per-instance strategies do
+                this.current = instance;
+                for (int i = 0; i < this.numberOfMembers; i++)
+                    trainCurrent(i);
+                break;
+        }
+        this.current = null;
+        boolean change = false;
+        for (int i = 0; i < this.numberOfMembers; i++) {
+            change |= this.changed[i];
+            this.changed[i] = false;
+        }
+        if (change)
+            onChange(seq);
+    }
+
+    /***
+     * Trains every member on the instances of the chunk, in order. Only the chunk strategy trains on the
+     * whole chunk at once, the others train on one instance after the other.
+     */
+    public void train(Instances instances) {
+        if (this.strategy != CHUNK) {
+            for (int i = 0; i < instances.numInstances(); i++)
+                train(instances.instance(i));
+            return;
+        }
+        this.chunk = new SharedChunk(instances);
+        this.chunkStart = this.seq + 1;
+        this.seq += this.chunk.numInstances();
+        this.driftSignals.prepare(this.chunk.numInstances());
+        if (this.scheduler != null) {
+            this.scheduler.train(this.chunk);
+        } else if (this.pool != null) {
+            invokeAll(this.memberTasks);
+        } else {
+            for (int i = 0; i < this.numberOfMembers; i++)
+                trainChunk(i);
+        }
+        this.chunk = null;
+        // one change per drifting instance, several drifts in a chunk are not merged
+        this.driftSignals.drain(position -> onChange(this.chunkStart + position));
+    }
+
+    /***
+     * Combined vote of the members for instance. With the async strategy each member votes once it has
+     * trained on every instance queued, with the snapshot strategy in the state it is in, up to the queue
+     * depth behind the calling thread.
+     */
+    public double[] votes(Instance instance) {
+        switch (this.strategy) {
+            case ASYNC:
+                if (this.snapshot)
+                    return MemberPipeline.sum(this.pipeline.snapshotVotes(instance), instance.numClasses());
+                double[][] rows = this.pipeline.votes(instance);
+                if (!this.pendingChanges.isEmpty()) {
+                    // the ensemble changed before this instance, vote again with the members reset
+                    handlePendingChanges();
+                    rows = this.pipeline.votes(instance);
+                }
+                return MemberPipeline.sum(rows, instance.numClasses());
+            case FORK_JOIN:
+                return ParallelVoting.combine(this.forkJoinPool, this.numberOfMembers, instance, this.core);
+            default:
+                return ParallelVoting.combine(this.pool, this.numberOfMembers, instance, this.core);
+        }
+    }
+
+    /***
+     * Combined votes for every instance of the chunk, written into buffer when it has one row per instance.
+     * With the async strategy the members first train on every instance queued.
+     */
+    public double[][] votes(Instances instances, double[][] buffer) {
+        if (this.strategy == ASYNC)
+            awaitQuiescence();
+        ExecutorService votingPool = this.strategy == FORK_JOIN ? this.forkJoinPool : this.pool;
+        return ParallelVoting.combine(votingPool, this.numberOfMembers, instances, this.core, buffer);
+    }
+
+    /***
+     * Waits until every member has trained on every instance given and handles the pending changes,
+     * so the calling thread can read the ensemble. Only the async strategy has anything to wait for.
+     */
+    public void awaitQuiescence() {
+        if (this.pipeline != null) {
+            this.pipeline.awaitQuiescence();
+            handlePendingChanges();
+        }
+    }
+
+    /***
+     * Stops the threads once the members are done. Can be called more than once.
+     */
+    public void shutdown() {
+        if (this.pipeline != null)
+            this.pipeline.awaitQuiescence();
+        if (this.pool != null)
+            this.pool.shutdown();
+        if (this.forkJoinPool != null)
+            this.forkJoinPool.shutdown();
+        if (this.scheduler != null)
+            this.scheduler.shutdown();
+    }
+
+    /***
+     * Handles the changes signalled since the last call, one per drifting instance in stream order,
+     * once every member is idle.
+     */
+    private void handlePendingChanges() {
+        if (this.pendingChanges.isEmpty())
+            return;
+        this.pipeline.awaitQuiescence();
+        Long seq;
+        while ((seq = this.pendingChanges.pollFirst()) != null)
+            onChange(seq);
+    }
+
+    private void onChange(long seq) {
+        this.changes++;
+        this.core.onChange(seq);
+    }
+
+    private int drawWeight(int member) {
+        return this.samplers == null ? 0 : this.samplers[member].next();
+    }
+
+    private void trainCurrent(int member) {
+        int weight = drawWeight(member);
+        if (weight > 0 || this.everyInstance)
+            this.changed[member] = this.core.trainMember(member, this.views[member].of(this.current), weight,
+                    this.seq);
+    }
+
+    /***
+     * Trains member on the chunk, drawing its weights for the whole chunk at once.
+     */
+    private void trainChunk(int member) {
+        SharedChunk chunk = this.chunk;
+        int[] weights = null;
+        if (this.samplers != null) {
+            weights = this.chunkWeights[member];
+            if (weights == null || weights.length < chunk.numInstances()) {
+                weights = new int[chunk.numInstances()];
+                this.chunkWeights[member] = weights;
+            }
+            this.samplers[member].fill(weights, chunk.numInstances());
+        }
+        for (int i = 0; i < chunk.numInstances(); i++) {
+            int weight = weights == null ? 0 : weights[i];
+            if ((weight > 0 || this.everyInstance)
+                    && this.core.trainMember(member, chunk.view(i, this.views[member]), weight, this.chunkStart + i))
+                this.driftSignals.signal(member, i);
+        }
+    }
+
+    private void invokeAll(List<Callable<Integer>> tasks) {
+        try {
+            for (Future<Integer> future : this.pool.invokeAll(tasks))
+                future.get();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException("Could not call invokeAll() on training threads.");
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Training thread failed.", ex.getCause());
+        }
+    }
+
+    /***
+     * Trains the members in [from, to) on the current instance, splitting the range in halves.
+     */
+    private class MemberRange extends RecursiveAction {
+
+        private final int from;
+
+        private final int to;
+
+        MemberRange(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from == 1) {
+                trainCurrent(this.from);
+                return;
+            }
+            int middle = (this.from + this.to) >>> 1;
+            invokeAll(new MemberRange(this.from, middle), new MemberRange(middle, this.to));
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *    EnsembleExecutors.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.meta;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread pools of the Executor ensembles: platform threads or virtual threads.
+ *
+ * <p>The platform backend is the pool the ensembles always used, -c platform
+ * threads. The virtual backend starts one virtual thread per task, i.e. per
+ * ensemble member trained, and lets at most -c of them train at once: a task
+ * takes one of -c permits before running, the others are parked, which costs
+ * a virtual thread no carrier. The carriers themselves are the JDK's virtual
+ * thread scheduler, a ForkJoinPool shared by the whole JVM with one carrier
+ * per processor; give -Djdk.virtualThreadScheduler.parallelism=N on the
+ * command line (see exec.sh) to run it on the N cores the experiment is bound
+ * to.</p>
+ *
+ * <p>Virtual threads need JDK 21 or later; the code is compiled for older
+ * JDKs, so the virtual executor is looked up by reflection and its absence is
+ * reported when the ensemble is reset.</p>
+ */
+public class EnsembleExecutors {
+
+    public static final int PLATFORM = 0;
+
+    public static final int VIRTUAL = 1;
+
+    public static final String[] BACKENDS = {"platform", "virtual"};
+
+    public static final String[] BACKEND_DESCRIPTIONS = {
+            "Pool of -c platform threads.",
+            "One virtual thread per member task, at most -c running at once (JDK 21+)."};
+
+    /***
+     * Executors.newFixedThreadPool(numberOfJobs) or its virtual thread counterpart.
+     */
+    public static ExecutorService newFixedThreadPool(int backend, int numberOfJobs) {
+        return backend == VIRTUAL ? newVirtualThreadExecutor(numberOfJobs) : Executors.newFixedThreadPool(numberOfJobs);
+    }
+
+    /***
+     * Executors.newWorkStealingPool(numberOfJobs) or its virtual thread counterpart.
+     */
+    public static ExecutorService newWorkStealingPool(int backend, int numberOfJobs) {
+        return backend == VIRTUAL ? newVirtualThreadExecutor(numberOfJobs) : Executors.newWorkStealingPool(numberOfJobs);
+    }
+
+    /***
+     * One virtual thread per task, at most parallelism tasks running at once.
+     */
+    public static ExecutorService newVirtualThreadExecutor(int parallelism) {
+        ExecutorService virtualThreads;
+        try {
+            virtualThreads = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            throw new RuntimeException("The virtual thread backend needs JDK 21 or later, running on "
+                    + System.getProperty("java.version") + ".", ex);
+        }
+        return new BoundedExecutor(virtualThreads, parallelism);
+    }
+
+    /***
+     * Runs the tasks of executor holding one of permits, the other tasks wait for one.
+     */
+    static class BoundedExecutor extends AbstractExecutorService {
+
+        private final ExecutorService executor;
+
+        private final Semaphore permits;
+
+        private final int parallelism;
+
+        BoundedExecutor(ExecutorService executor, int permits) {
+            this.executor = executor;
+            this.permits = new Semaphore(permits);
+            this.parallelism = permits;
+        }
+
+        /***
+         * Number of tasks running at once, at most.
+         */
+        int getParallelism() {
+            return this.parallelism;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            this.executor.execute(() -> {
+                this.permits.acquireUninterruptibly();
+                try {
+                    command.run();
+                } finally {
+                    this.permits.release();
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            this.executor.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return this.executor.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return this.executor.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return this.executor.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return this.executor.awaitTermination(timeout, unit);
+        }
+    }
+}
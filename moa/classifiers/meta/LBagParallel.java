@@ -0,0 +1,244 @@
+/*
+ *    LBagParallel.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.meta;
+
+import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import moa.capabilities.Capability;
+import moa.capabilities.ImmutableCapabilities;
+import moa.classifiers.BatchPredictor;
+import moa.classifiers.Classifier;
+import moa.classifiers.Multithreading;
+import moa.classifiers.TrainingThreads;
+import moa.core.Measurement;
+
+/**
+ * Leveraging Bagging for evolving data streams using ADWIN, run by an {@link EnsembleEngine} with the
+ * execution strategy chosen by -e.
+ *
+ * <p>Each member draws its weight from its own random stream, the
+ * LeveragingBagME weight reads the member's own state only, so every
+ * algorithm of -m trains the members independently. The output codes (-o)
+ * are drawn by the calling thread before the first instance.</p>
+ *
+ * <p>Parameters:</p> <ul>
+ * <li>-l : Classiﬁer to train</li>
+ * <li>-s : The number of models in the bag</li>
+ * <li>-w : The number to use to compute the weight of new instances</li>
+ * <li>-a : Delta of Adwin change detection</li>
+ * <li>-o : Use Output Codes to use binary classifiers</li>
+ * <li>-m : Leveraging Bagging to use</li>
+ * <li>-c : Number of threads (-1 = all the processors, 0 or 1 = sequential, but 0 = the common ForkJoinPool with forkjoin)</li>
+ * <li>-e : Execution strategy: sequential, instance, chunk, forkjoin, async, pinned or snapshot</li>
+ * <li>-v : Train the members on platform threads or virtual threads</li>
+ * <li>-k : Depth of the member queues of the async strategy</li>
+ * <li>-b : Bind the workers of the chunk and pinned strategies to CPUs or NUMA nodes</li> </ul>
+ */
+public class LBagParallel extends LeveragingBag implements Multithreading, BatchPredictor, TrainingThreads,
+        EnsembleEngine.Core {
+
+    @Override
+    public String getPurposeString() {
+        return "Leveraging Bagging for evolving data streams using ADWIN, with a choice of parallel execution strategies.";
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    protected final ParallelEnsemble parallel = new ParallelEnsemble(defaultExecutionStrategy());
+
+    public IntOption numberOfJobsOption = this.parallel.numberOfJobsOption;
+
+    public MultiChoiceOption executionStrategyOption = this.parallel.executionStrategyOption;
+
+    public MultiChoiceOption executorBackendOption = this.parallel.executorBackendOption;
+
+    public IntOption asyncQueueDepthOption = this.parallel.asyncQueueDepthOption;
+
+    public MultiChoiceOption affinityOption = this.parallel.affinityOption;
+
+    protected PoissonSampler[] samplers;
+
+    /***
+     * Default of -e, read while the options are created; the classes named after a strategy override it.
+     */
+    protected int defaultExecutionStrategy() {
+        return EnsembleEngine.INSTANCE;
+    }
+
+    @Override
+    public void resetLearningImpl() {
+        this.parallel.shutdown();
+        super.resetLearningImpl();
+        // only LeveragingBag draws with the shrunk lambda, WT and Subag draw Poisson(1)
+        double lambda = this.leveraginBagAlgorithmOption.getChosenIndex() == 0 ?
+                this.weightShrinkOption.getValue() : 1.0;
+        this.samplers = PoissonSampler.forMembers(lambda, this.randomSeed, this.ensemble.length);
+        this.parallel.reset(this, this.ensemble.length);
+    }
+
+    @Override
+    public void trainOnInstanceImpl(Instance inst) {
+        if (this.initMatrixCodes) {
+            buildMatrixCodes(inst.numClasses());
+        }
+        this.parallel.train(inst);
+    }
+
+    @Override
+    public void trainOnInstances(Instances instances) {
+        if (this.initMatrixCodes) {
+            buildMatrixCodes(instances.numClasses());
+        }
+        this.parallel.train(instances);
+    }
+
+    /***
+     * The Poisson draws of LeveragingBag, WT and Subag; ME and Half draw their weights in trainMember().
+     */
+    @Override
+    public PoissonSampler[] getSamplers() {
+        int algorithm = this.leveraginBagAlgorithmOption.getChosenIndex();
+        return algorithm == 0 || algorithm == 3 || algorithm == 4 ? this.samplers : null;
+    }
+
+    @Override
+    public boolean needsEveryInstance() {
+        // the ADWIN of a member sees every instance
+        return true;
+    }
+
+    @Override
+    public boolean trainMember(int member, Instance inst, int draw, long seq) {
+        if (this.outputCodesOption.isSet()) {
+            inst.setClassValue((double) this.matrixCodes[member][(int) inst.classValue()]);
+        }
+        double k = 0.0;
+        switch (this.leveraginBagAlgorithmOption.getChosenIndex()) {
+            case 0: //LeveragingBag
+                k = draw;
+                break;
+            case 1: //LeveragingBagME
+                double error = this.ADError[member].getEstimation();
+                k = !this.ensemble[member].correctlyClassifies(inst) ? 1.0 : (this.samplers[member].nextDouble() < (error / (1.0 - error)) ? 1.0 : 0.0);
+                break;
+            case 2: //LeveragingBagHalf
+                k = this.samplers[member].nextBoolean() ? 0.0 : 1.0;
+                break;
+            case 3: //LeveragingBagWT
+                k = 1.0 + draw;
+                break;
+            case 4: //LeveragingSubag
+                k = draw > 0 ? 1.0 : 0.0;
+                break;
+        }
+        if (k > 0) {
+            inst.setWeight(inst.weight() * k);
+            this.ensemble[member].trainOnInstance(inst);
+        }
+        return ParallelEnsemble.errorIncreased(this.ADError[member],
+                this.ensemble[member].correctlyClassifies(inst));
+    }
+
+    @Override
+    public void onChange(long seq) {
+        this.instProc = (int) seq;
+        // reported by the "change detections" measurement
+        this.numberOfChangesDetected++;
+        resetWorstLearner();
+    }
+
+    /***
+     * Normalized vote of member, or with output codes one vote for every class whose code matches the binary vote.
+     */
+    @Override
+    public void addVote(int member, Instance inst, double[] row) {
+        if (!this.outputCodesOption.isSet()) {
+            ParallelVoting.addNormalized(this.ensemble[member].getVotesForInstance(inst), 1.0, row);
+            return;
+        }
+        if (this.initMatrixCodes)
+            return;
+        //Replace class by OC
+        Instance weightedInst = (Instance) inst.copy();
+        weightedInst.setClassValue((double) this.matrixCodes[member][(int) inst.classValue()]);
+        double vote[] = this.ensemble[member].getVotesForInstance(weightedInst);
+        //Binary Case
+        int voteClass = 0;
+        if (vote.length == 2) {
+            voteClass = (vote[1] > vote[0] ? 1 : 0);
+        }
+        //Update votes
+        for (int j = 0; j < row.length; j++) {
+            if (this.matrixCodes[member][j] == voteClass) {
+                row[j] += 1;
+            }
+        }
+    }
+
+    @Override
+    public double[] getVotesForInstance(Instance inst) {
+        return this.parallel.votes(inst);
+    }
+
+    @Override
+    public double[][] getVotesForInstances(Instances instances) {
+        return this.parallel.votes(instances);
+    }
+
+    @Override
+    protected Measurement[] getModelMeasurementsImpl() {
+        this.parallel.awaitQuiescence();
+        return this.parallel.withDriftSignals(super.getModelMeasurementsImpl());
+    }
+
+    @Override
+    public Classifier[] getSubClassifiers() {
+        this.parallel.awaitQuiescence();
+        return super.getSubClassifiers();
+    }
+
+    @Override
+    public int getTrainingThreads() {
+        return this.parallel.getTrainingThreads(this.ensembleSizeOption.getValue());
+    }
+
+    @Override
+    public void getModelDescription(StringBuilder out, int indent) {
+        this.parallel.getModelDescription(out);
+    }
+
+    @Override
+    public ImmutableCapabilities defineImmutableCapabilities() {
+        if (this.getClass() == LBagParallel.class)
+            return new ImmutableCapabilities(Capability.VIEW_STANDARD, Capability.VIEW_LITE);
+        else
+            return new ImmutableCapabilities(Capability.VIEW_STANDARD);
+    }
+
+    // Avoids Thread Leaking
+    @Override
+    public void trainingHasEnded() {
+        this.parallel.shutdown();
+    }
+
+    @Override
+    public void init() {
+    }
+}
@@ -33,7 +33,6 @@ import moa.classifiers.AbstractClassifier;
 import moa.classifiers.Classifier;
 import com.yahoo.labs.samoa.instances.Instance;
 
-import moa.core.DoubleVector;
 import moa.core.Measurement;
 import moa.core.MiscUtils;
 
@@ -116,38 +115,11 @@ public class LeveragingBag extends AbstractClassifier implements MultiClassClass
 
     @Override
     public void trainOnInstanceImpl(Instance inst) {
-        int numClasses = inst.numClasses();
         //Output Codes
         if (this.initMatrixCodes == true) {
-            this.matrixCodes = new int[this.ensemble.length][inst.numClasses()];
-            for (int i = 0; i < this.ensemble.length; i++) {
-                int numberOnes;
-                int numberZeros;
-
-                do { // until we have the same number of zeros and ones
-                    numberOnes = 0;
-                    numberZeros = 0;
-                    for (int j = 0; j < numClasses; j++) {
-                        int result = 0;
-                        if (j == 1 && numClasses == 2) {
-                            result = 1 - this.matrixCodes[i][0];
-                        } else {
-                            result = (this.classifierRandom.nextBoolean() ? 1 : 0);
-                        }
-                        this.matrixCodes[i][j] = result;
-                        if (result == 1) {
-                            numberOnes++;
-                        } else {
-                            numberZeros++;
-                        }
-                    }
-                } while ((numberOnes - numberZeros) * (numberOnes - numberZeros) > (this.ensemble.length % 2));
-
-            }
-            this.initMatrixCodes = false;
+            buildMatrixCodes(inst.numClasses());
         }
 
-
         boolean Change = false;
         Instance weightedInst = (Instance) inst.copy();
         double w = this.weightShrinkOption.getValue();
@@ -196,19 +168,58 @@ public class LeveragingBag extends AbstractClassifier implements MultiClassClass
         if (Change) {
             numberOfChangesDetected++;
             System.out.println("Change # " + numberOfChangesDetected + " detected on batch # " + this.instProc);
-            double max = 0.0;
-            int imax = -1;
-            for (int i = 0; i < this.ensemble.length; i++) {
-                if (max < this.ADError[i].getEstimation()) {
-                    max = this.ADError[i].getEstimation();
-                    imax = i;
+            resetWorstLearner();
+        }
+    }
+
+    /***
+     * Draws the random output code of every member, with as many zeros as ones.
+     */
+    protected void buildMatrixCodes(int numClasses) {
+        this.matrixCodes = new int[this.ensemble.length][numClasses];
+        for (int i = 0; i < this.ensemble.length; i++) {
+            int numberOnes;
+            int numberZeros;
+
+            do { // until we have the same number of zeros and ones
+                numberOnes = 0;
+                numberZeros = 0;
+                for (int j = 0; j < numClasses; j++) {
+                    int result = 0;
+                    if (j == 1 && numClasses == 2) {
+                        result = 1 - this.matrixCodes[i][0];
+                    } else {
+                        result = (this.classifierRandom.nextBoolean() ? 1 : 0);
+                    }
+                    this.matrixCodes[i][j] = result;
+                    if (result == 1) {
+                        numberOnes++;
+                    } else {
+                        numberZeros++;
+                    }
                 }
+            } while ((numberOnes - numberZeros) * (numberOnes - numberZeros) > (this.ensemble.length % 2));
+
+        }
+        this.initMatrixCodes = false;
+    }
+
+    /***
+     * Resets the member with the highest ADWIN error estimation.
+     */
+    protected void resetWorstLearner() {
+        double max = 0.0;
+        int imax = -1;
+        for (int i = 0; i < this.ensemble.length; i++) {
+            if (max < this.ADError[i].getEstimation()) {
+                max = this.ADError[i].getEstimation();
+                imax = i;
             }
-            if (imax != -1) {
-                this.ensemble[imax].resetLearning();
-                //this.ensemble[imax].trainOnInstance(inst);
-                this.ADError[imax] = new ADWIN((double) this.deltaAdwinOption.getValue());
-            }
+        }
+        if (imax != -1) {
+            this.ensemble[imax].resetLearning();
+            //this.ensemble[imax].trainOnInstance(inst);
+            this.ADError[imax] = new ADWIN((double) this.deltaAdwinOption.getValue());
         }
     }
 
@@ -217,15 +228,7 @@ public class LeveragingBag extends AbstractClassifier implements MultiClassClass
         if (this.outputCodesOption.isSet()) {
             return getVotesForInstanceBinary(inst);
         }
-        DoubleVector combinedVote = new DoubleVector();
-        for (int i = 0; i < this.ensemble.length; i++) {
-            DoubleVector vote = new DoubleVector(this.ensemble[i].getVotesForInstance(inst));
-            if (vote.sumOfValues() > 0.0) {
-                vote.normalize();
-                combinedVote.addValues(vote);
-            }
-        }
-        return combinedVote.getArrayRef();
+        return ParallelVoting.combine(null, this.ensemble, inst);
     }
 
     public double[] getVotesForInstanceBinary(Instance inst) {
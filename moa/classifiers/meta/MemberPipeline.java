@@ -0,0 +1,317 @@
+/*
+ *    MemberPipeline.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.meta;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Per-member training queues of the RUNPER ensembles, replacing the invokeAll() barrier of every instance.
+ *
+ * <p>Each member has a bounded single producer, single consumer ring of pending
+ * instances. The calling thread appends the instance to the ring of every member
+ * that trains on it (non-zero weight) and returns at once. A member with work is
+ * scheduled as one task on the pool, the task trains the member on everything
+ * in its ring, in order, and stops when the ring is empty; a member is never
+ * run by two threads at once. So member j may already train on instance t+1
+ * while member i is still on t, and the order of the instances is kept for
+ * every member.</p>
+ *
+ * <p>A prediction is appended to every ring as well, after the instances
+ * already there: each member votes as soon as it is up to date, into its own
+ * row, and the calling thread waits for all the rows. When the prediction
+ * returns every ring is empty, the ensemble is quiescent and its state (drift
+ * detectors, member resets) can be read and changed by the calling thread
+ * until the next instance is appended. {@link #awaitQuiescence()} waits for the
+ * same state without predicting.</p>
+ *
+ * <p>Asynchronous pipelines do not wait for the members to predict.
+ * {@link #snapshotVotes(Instance)} reads every member in the state it is in,
+ * between two of its instances: a member trains on one instance while holding
+ * its own lock, the calling thread takes that lock to read its vote. The
+ * members may then be behind the calling thread by up to the depth of the
+ * rings (rounded up to a power of two), the bound on the staleness of a
+ * prediction.</p>
+ *
+ * <p>The calling thread is the only producer; it waits when a ring is full.
+ * A failure of a member is thrown at the next call of the calling thread.</p>
+ */
+public class MemberPipeline {
+
+    public static final int DEFAULT_DEPTH = 256;
+
+    protected static final int SPINS = 100;
+
+    protected static final long PARK_NANOS = 20000L;
+
+    /***
+     * Trains member on instance with the given weight; seq is the value given to train().
+     */
+    public interface Member {
+        void train(int member, Instance instance, double weight, long seq);
+    }
+
+    private final ExecutorService pool;
+
+    private final Member member;
+
+    private final ParallelVoting.MemberVote memberVote;
+
+    private final int numberOfMembers;
+
+    private final int mask;
+
+    // per member ring of pending work, a vote request when voteRequests is set
+    private final Instance[][] instances;
+
+    private final double[][] weights;
+
+    private final long[][] seqs;
+
+    private final boolean[][] voteRequests;
+
+    // next position to run, written by the member's task only
+    private final AtomicLongArray heads;
+
+    // next position to fill, written by the calling thread only
+    private final AtomicLongArray tails;
+
+    // 1 while a task of the member is scheduled or running
+    private final AtomicIntegerArray scheduled;
+
+    private final Runnable[] drains;
+
+    // held by a member while it runs one item, asynchronous pipelines only
+    private final Object[] locks;
+
+    private final AtomicInteger pendingVotes = new AtomicInteger();
+
+    private double[][] rows;
+
+    private volatile Thread waiter;
+
+    private volatile Throwable failure;
+
+    private long fullWaits;
+
+    public MemberPipeline(ExecutorService pool, int numberOfMembers, int depth, boolean asynchronous,
+                          ParallelVoting.MemberVote memberVote, Member member) {
+        this.pool = pool;
+        this.numberOfMembers = numberOfMembers;
+        this.memberVote = memberVote;
+        this.member = member;
+        // depth rounded up to a power of two
+        int size = depth <= 1 ? 1 : Integer.highestOneBit(depth - 1) << 1;
+        this.mask = size - 1;
+        this.instances = new Instance[numberOfMembers][size];
+        this.weights = new double[numberOfMembers][size];
+        this.seqs = new long[numberOfMembers][size];
+        this.voteRequests = new boolean[numberOfMembers][size];
+        this.heads = new AtomicLongArray(numberOfMembers);
+        this.tails = new AtomicLongArray(numberOfMembers);
+        this.scheduled = new AtomicIntegerArray(numberOfMembers);
+        this.drains = new Runnable[numberOfMembers];
+        for (int i = 0; i < numberOfMembers; i++) {
+            final int m = i;
+            this.drains[i] = () -> drain(m);
+        }
+        this.locks = asynchronous ? new Object[numberOfMembers] : null;
+        for (int i = 0; asynchronous && i < numberOfMembers; i++)
+            this.locks[i] = new Object();
+    }
+
+    public MemberPipeline(ExecutorService pool, int numberOfMembers, ParallelVoting.MemberVote memberVote, Member member) {
+        this(pool, numberOfMembers, DEFAULT_DEPTH, false, memberVote, member);
+    }
+
+    /***
+     * Appends instance to the ring of member, to be run by Member.train() with weight and seq.
+     */
+    public void train(int member, Instance instance, double weight, long seq) {
+        enqueue(member, instance, weight, seq, false);
+    }
+
+    /***
+     * Rows of the member votes for instance, written once every member has trained on the instances
+     * appended before. The rows are reused by the next call.
+     */
+    public double[][] votes(Instance instance) {
+        rows(instance.numClasses());
+        this.pendingVotes.set(this.numberOfMembers);
+        for (int i = 0; i < this.numberOfMembers; i++)
+            enqueue(i, instance, 0.0, -1, true);
+        this.waiter = Thread.currentThread();
+        int spins = 0;
+        while (this.pendingVotes.get() > 0) {
+            if (spins < SPINS) {
+                spins++;
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+        }
+        this.waiter = null;
+        checkFailure();
+        return this.rows;
+    }
+
+    /***
+     * Rows of the member votes for instance read right away, each member between two of its instances.
+     * Only for asynchronous pipelines. The rows are reused by the next call.
+     */
+    public double[][] snapshotVotes(Instance instance) {
+        if (this.locks == null)
+            throw new IllegalStateException("Snapshot votes need an asynchronous pipeline.");
+        double[][] rows = rows(instance.numClasses());
+        for (int i = 0; i < this.numberOfMembers; i++) {
+            synchronized (this.locks[i]) {
+                this.memberVote.addVote(i, instance, rows[i]);
+            }
+        }
+        checkFailure();
+        return rows;
+    }
+
+    /***
+     * Sum of the rows in member order, the same as adding the member votes serially.
+     */
+    public static double[] sum(double[][] rows, int numClasses) {
+        double[] combinedVote = new double[numClasses];
+        for (double[] row : rows) {
+            for (int c = 0; c < numClasses; c++)
+                combinedVote[c] += row[c];
+        }
+        return combinedVote;
+    }
+
+    /***
+     * Waits until every member has trained on every instance appended.
+     */
+    public void awaitQuiescence() {
+        for (int i = 0; i < this.numberOfMembers; i++) {
+            int spins = 0;
+            while (this.heads.get(i) != this.tails.get(i)) {
+                if (spins < SPINS) {
+                    spins++;
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+            }
+        }
+        checkFailure();
+    }
+
+    /***
+     * Times the calling thread found a ring full.
+     */
+    public long getFullWaits() {
+        return this.fullWaits;
+    }
+
+    /***
+     * Rows of numClasses zeros, reused by every prediction.
+     */
+    private double[][] rows(int numClasses) {
+        if (this.rows == null || this.rows[0].length != numClasses)
+            this.rows = new double[this.numberOfMembers][numClasses];
+        for (double[] row : this.rows)
+            Arrays.fill(row, 0.0);
+        return this.rows;
+    }
+
+    private void enqueue(int i, Instance instance, double weight, long seq, boolean vote) {
+        long t = this.tails.get(i);
+        if (t - this.heads.get(i) > this.mask) {
+            this.fullWaits++;
+            int spins = 0;
+            while (t - this.heads.get(i) > this.mask) {
+                checkFailure();
+                if (spins < SPINS) {
+                    spins++;
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+            }
+        }
+        int slot = (int) t & this.mask;
+        this.instances[i][slot] = instance;
+        this.weights[i][slot] = weight;
+        this.seqs[i][slot] = seq;
+        this.voteRequests[i][slot] = vote;
+        this.tails.set(i, t + 1);
+        if (this.scheduled.get(i) == 0 && this.scheduled.compareAndSet(i, 0, 1))
+            this.pool.execute(this.drains[i]);
+    }
+
+    private void drain(int i) {
+        Instance[] pending = this.instances[i];
+        while (true) {
+            long h = this.heads.get(i);
+            while (h < this.tails.get(i)) {
+                int slot = (int) h & this.mask;
+                Instance instance = pending[slot];
+                pending[slot] = null;
+                boolean vote = this.voteRequests[i][slot];
+                if (this.locks != null) {
+                    synchronized (this.locks[i]) {
+                        run(i, slot, instance, vote);
+                    }
+                } else {
+                    run(i, slot, instance, vote);
+                }
+                this.heads.set(i, ++h);
+                if (vote && this.pendingVotes.decrementAndGet() == 0) {
+                    Thread thread = this.waiter;
+                    if (thread != null)
+                        LockSupport.unpark(thread);
+                }
+            }
+            this.scheduled.set(i, 0);
+            // an instance appended after the last check of the tail would not have scheduled a task
+            if (this.heads.get(i) == this.tails.get(i) || !this.scheduled.compareAndSet(i, 0, 1))
+                return;
+        }
+    }
+
+    private void run(int i, int slot, Instance instance, boolean vote) {
+        try {
+            if (vote)
+                this.memberVote.addVote(i, instance, this.rows[i]);
+            else
+                this.member.train(i, instance, this.weights[i][slot], this.seqs[i][slot]);
+        } catch (Throwable t) {
+            this.failure = t;
+        }
+    }
+
+    private void checkFailure() {
+        Throwable t = this.failure;
+        if (t != null) {
+            this.failure = null;
+            throw new RuntimeException("Training thread failed.", t);
+        }
+    }
+}
@@ -28,7 +28,6 @@ import moa.classifiers.AbstractClassifier;
 import moa.classifiers.Classifier;
 import com.yahoo.labs.samoa.instances.Instance;
 
-import moa.core.DoubleVector;
 import moa.core.Measurement;
 import moa.core.MiscUtils;
 import moa.options.ClassOption;
@@ -144,33 +143,32 @@ public class OzaBagAdwin extends AbstractClassifier implements MultiClassClassif
         if (Change) {
             this.numberOfChangesDetected++;
             System.out.println("Change # " + numberOfChangesDetected + " detected on batch # " + this.instProc);
-            double max = 0.0;
-            int imax = -1;
-            for (int i = 0; i < this.ensemble.length; i++) {
-                if (max < this.ADError[i].getEstimation()) {
-                    max = this.ADError[i].getEstimation();
-                    imax = i;
-                }
-            }
-            if (imax != -1) {
-                this.ensemble[imax].resetLearning();
-                //this.ensemble[imax].trainOnInstance(inst);
-                this.ADError[imax] = new ADWIN();
-            }
+            resetWorstLearner();
         }
     }
 
-    @Override
-    public double[] getVotesForInstance(Instance inst) {
-        DoubleVector combinedVote = new DoubleVector();
+    /***
+     * Resets the member with the highest ADWIN error estimation.
+     */
+    protected void resetWorstLearner() {
+        double max = 0.0;
+        int imax = -1;
         for (int i = 0; i < this.ensemble.length; i++) {
-            DoubleVector vote = new DoubleVector(this.ensemble[i].getVotesForInstance(inst));
-            if (vote.sumOfValues() > 0.0) {
-                vote.normalize();
-                combinedVote.addValues(vote);
+            if (max < this.ADError[i].getEstimation()) {
+                max = this.ADError[i].getEstimation();
+                imax = i;
             }
         }
-        return combinedVote.getArrayRef();
+        if (imax != -1) {
+            this.ensemble[imax].resetLearning();
+            //this.ensemble[imax].trainOnInstance(inst);
+            this.ADError[imax] = new ADWIN();
+        }
+    }
+
+    @Override
+    public double[] getVotesForInstance(Instance inst) {
+        return ParallelVoting.combine(null, this.ensemble, inst);
     }
 
     @Override
@@ -0,0 +1,181 @@
+/*
+ *    OzaBagAdwinParallel.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.meta;
+
+import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import moa.capabilities.Capability;
+import moa.capabilities.ImmutableCapabilities;
+import moa.classifiers.BatchPredictor;
+import moa.classifiers.Classifier;
+import moa.classifiers.Multithreading;
+import moa.classifiers.TrainingThreads;
+import moa.core.Measurement;
+
+/**
+ * Bagging for evolving data streams using ADWIN, run by an {@link EnsembleEngine} with the execution
+ * strategy chosen by -e.
+ *
+ * <p>Each member feeds its ADWIN on its own thread, the member with the worst
+ * estimation is reset by the calling thread once the members are idle (see
+ * {@link EnsembleEngine}).</p>
+ *
+ * <p>Parameters:</p> <ul>
+ * <li>-l : Classiﬁer to train</li>
+ * <li>-s : The number of models in the bag</li>
+ * <li>-c : Number of threads (-1 = all the processors, 0 or 1 = sequential, but 0 = the common ForkJoinPool with forkjoin)</li>
+ * <li>-e : Execution strategy: sequential, instance, chunk, forkjoin, async, pinned or snapshot</li>
+ * <li>-v : Train the members on platform threads or virtual threads</li>
+ * <li>-k : Depth of the member queues of the async strategy</li>
+ * <li>-b : Bind the workers of the chunk and pinned strategies to CPUs or NUMA nodes</li> </ul>
+ */
+public class OzaBagAdwinParallel extends OzaBagAdwin implements Multithreading, BatchPredictor, TrainingThreads,
+        EnsembleEngine.Core {
+
+    @Override
+    public String getPurposeString() {
+        return "Bagging for evolving data streams using ADWIN, with a choice of parallel execution strategies.";
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    protected final ParallelEnsemble parallel = new ParallelEnsemble(defaultExecutionStrategy());
+
+    public IntOption numberOfJobsOption = this.parallel.numberOfJobsOption;
+
+    public MultiChoiceOption executionStrategyOption = this.parallel.executionStrategyOption;
+
+    public MultiChoiceOption executorBackendOption = this.parallel.executorBackendOption;
+
+    public IntOption asyncQueueDepthOption = this.parallel.asyncQueueDepthOption;
+
+    public MultiChoiceOption affinityOption = this.parallel.affinityOption;
+
+    protected PoissonSampler[] samplers;
+
+    /***
+     * Default of -e, read while the options are created; the classes named after a strategy override it.
+     */
+    protected int defaultExecutionStrategy() {
+        return EnsembleEngine.INSTANCE;
+    }
+
+    @Override
+    public void resetLearningImpl() {
+        this.parallel.shutdown();
+        super.resetLearningImpl();
+        this.samplers = PoissonSampler.forMembers(1.0, this.randomSeed, this.ensemble.length);
+        this.parallel.reset(this, this.ensemble.length);
+    }
+
+    @Override
+    public void trainOnInstanceImpl(Instance inst) {
+        this.parallel.train(inst);
+    }
+
+    @Override
+    public void trainOnInstances(Instances instances) {
+        this.parallel.train(instances);
+    }
+
+    @Override
+    public PoissonSampler[] getSamplers() {
+        return this.samplers;
+    }
+
+    @Override
+    public boolean needsEveryInstance() {
+        // the ADWIN of a member sees every instance
+        return true;
+    }
+
+    @Override
+    public boolean trainMember(int member, Instance inst, int k, long seq) {
+        if (k > 0) {
+            inst.setWeight(inst.weight() * k);
+            this.ensemble[member].trainOnInstance(inst);
+        }
+        return ParallelEnsemble.errorIncreased(this.ADError[member],
+                this.ensemble[member].correctlyClassifies(inst));
+    }
+
+    @Override
+    public void onChange(long seq) {
+        this.instProc = (int) seq;
+        // reported by the "change detections" measurement
+        this.numberOfChangesDetected++;
+        resetWorstLearner();
+    }
+
+    @Override
+    public void addVote(int member, Instance inst, double[] row) {
+        ParallelVoting.addNormalized(this.ensemble[member].getVotesForInstance(inst), 1.0, row);
+    }
+
+    @Override
+    public double[] getVotesForInstance(Instance inst) {
+        return this.parallel.votes(inst);
+    }
+
+    @Override
+    public double[][] getVotesForInstances(Instances instances) {
+        return this.parallel.votes(instances);
+    }
+
+    @Override
+    protected Measurement[] getModelMeasurementsImpl() {
+        this.parallel.awaitQuiescence();
+        return this.parallel.withDriftSignals(super.getModelMeasurementsImpl());
+    }
+
+    @Override
+    public Classifier[] getSubClassifiers() {
+        this.parallel.awaitQuiescence();
+        return super.getSubClassifiers();
+    }
+
+    @Override
+    public int getTrainingThreads() {
+        return this.parallel.getTrainingThreads(this.ensembleSizeOption.getValue());
+    }
+
+    @Override
+    public void getModelDescription(StringBuilder out, int indent) {
+        this.parallel.getModelDescription(out);
+    }
+
+    @Override
+    public ImmutableCapabilities defineImmutableCapabilities() {
+        if (this.getClass() == OzaBagAdwinParallel.class)
+            return new ImmutableCapabilities(Capability.VIEW_STANDARD, Capability.VIEW_LITE);
+        else
+            return new ImmutableCapabilities(Capability.VIEW_STANDARD);
+    }
+
+    // Avoids Thread Leaking
+    @Override
+    public void trainingHasEnded() {
+        this.parallel.shutdown();
+    }
+
+    @Override
+    public void init() {
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ *    ParallelEnsemble.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.meta;
+
+import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import moa.classifiers.core.driftdetection.ADWIN;
+import moa.core.Measurement;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Options and engine of the ensembles run by an {@link EnsembleEngine}: OzaBagParallel,
+ * OzaBagAdwinParallel, LBagParallel and AdaptiveRandomForestParallel.
+ *
+ * <p>Each of them extends its own algorithm, so they hold one of these instead
+ * of sharing a superclass. A class exposes the options below as public fields
+ * of its own, where MOA finds them, forwards the training and the voting, and
+ * keeps only how a member trains and votes (the {@link EnsembleEngine.Core}).</p>
+ *
+ * <p>The threads of the engine are not serialized: a copy of the ensemble, or
+ * an ensemble read back from a file, starts an engine of its own on first use,
+ * which goes on numbering the instances where the original stopped.</p>
+ */
+public class ParallelEnsemble implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public final IntOption numberOfJobsOption;
+
+    public final MultiChoiceOption executionStrategyOption;
+
+    public final MultiChoiceOption executorBackendOption = new MultiChoiceOption("executorBackend", 'v',
+            "Threads training the members: a pool of -c platform threads or a virtual thread per member (JDK 21+).",
+            EnsembleExecutors.BACKENDS, EnsembleExecutors.BACKEND_DESCRIPTIONS, EnsembleExecutors.PLATFORM);
+
+    public final IntOption asyncQueueDepthOption = new IntOption("asyncQueueDepth", 'k',
+            "Instances a member may lag behind with the async strategy.",
+            MemberPipeline.DEFAULT_DEPTH, 1, Integer.MAX_VALUE);
+
+    public final MultiChoiceOption affinityOption = new MultiChoiceOption("affinity", 'b',
+            "Train the chunk strategy with long-lived workers bound to CPUs or NUMA nodes (Linux).",
+            ThreadAffinity.MODES, ThreadAffinity.MODE_DESCRIPTIONS, ThreadAffinity.NONE);
+
+    private EnsembleEngine.Core core;
+
+    private int numberOfMembers;
+
+    private long instancesSeen;
+
+    private double[][] chunkVotes;
+
+    private transient EnsembleEngine engine;
+
+    /***
+     * @param defaultStrategy default of -e; with forkjoin -c defaults to 0, all the processors, as for the MC classes
+     */
+    public ParallelEnsemble(int defaultStrategy) {
+        this.numberOfJobsOption = new IntOption("numberOfJobs", 'c',
+                "Total number of concurrent jobs used for processing (-1 = as much as possible, 0 = do not use multithreading, but the common ForkJoinPool with the forkjoin strategy)",
+                defaultStrategy == EnsembleEngine.FORK_JOIN ? 0 : 1, -1, Integer.MAX_VALUE);
+        this.executionStrategyOption = new MultiChoiceOption("executionStrategy", 'e',
+                "How the members are trained in parallel.",
+                EnsembleEngine.STRATEGIES, EnsembleEngine.STRATEGY_DESCRIPTIONS, defaultStrategy);
+    }
+
+    /***
+     * Stops the engine of the previous ensemble and starts the one of the numberOfMembers members of core.
+     */
+    public void reset(EnsembleEngine.Core core, int numberOfMembers) {
+        shutdown();
+        this.core = core;
+        this.numberOfMembers = numberOfMembers;
+        this.instancesSeen = 0;
+        this.engine = null;
+        engine();
+    }
+
+    public void train(Instance instance) {
+        engine().train(instance);
+        this.instancesSeen = this.engine.getInstancesSeen();
+    }
+
+    public void train(Instances instances) {
+        engine().train(instances);
+        this.instancesSeen = this.engine.getInstancesSeen();
+    }
+
+    public double[] votes(Instance instance) {
+        return engine().votes(instance);
+    }
+
+    /***
+     * Votes for every instance of the chunk, in a buffer reused by the next call.
+     */
+    public double[][] votes(Instances instances) {
+        this.chunkVotes = engine().votes(instances, this.chunkVotes);
+        return this.chunkVotes;
+    }
+
+    /***
+     * Waits until the members are done with every instance given, before the calling thread reads them.
+     */
+    public void awaitQuiescence() {
+        if (this.engine != null)
+            this.engine.awaitQuiescence();
+    }
+
+    /***
+     * Stops the threads of the engine, e.g. when the training has ended.
+     */
+    public void shutdown() {
+        if (this.engine != null)
+            this.engine.shutdown();
+    }
+
+    public int getTrainingThreads(int numberOfMembers) {
+        return EnsembleEngine.trainingThreads(this.executionStrategyOption.getChosenIndex(),
+                this.numberOfJobsOption.getValue(), numberOfMembers);
+    }
+
+    /***
+     * Placement of the bound workers (-b), the only part of the model specific to the parallel execution.
+     */
+    public void getModelDescription(StringBuilder out) {
+        String placement = this.engine == null ? null : this.engine.placementReport();
+        if (placement != null)
+            out.append(placement).append(System.lineSeparator());
+    }
+
+    /***
+     * The measurements of the ensemble followed by the drift signals of its members, which only the chunk
+     * strategies (chunk and pinned) count.
+     */
+    public Measurement[] withDriftSignals(Measurement[] measurements) {
+        int strategy = this.executionStrategyOption.getChosenIndex();
+        if (strategy != EnsembleEngine.CHUNK && strategy != EnsembleEngine.PINNED)
+            return measurements;
+        Measurement[] withSignals = Arrays.copyOf(measurements, measurements.length + 1);
+        withSignals[measurements.length] = new Measurement("drift signals",
+                this.engine == null ? 0 : this.engine.getDriftSignals());
+        return withSignals;
+    }
+
+    /***
+     * The engine, started again after a copy or a deserialization, which leave it null.
+     */
+    private EnsembleEngine engine() {
+        if (this.engine == null) {
+            this.engine = new EnsembleEngine(this.executionStrategyOption.getChosenIndex(),
+                    this.numberOfJobsOption.getValue(), this.executorBackendOption.getChosenIndex(),
+                    this.asyncQueueDepthOption.getValue(), this.affinityOption.getChosenIndex(),
+                    this.numberOfMembers, this.core);
+            this.engine.resumeAfter(this.instancesSeen);
+        }
+        return this.engine;
+    }
+
+    /***
+     * Feeds the ADWIN of a member with its error on the last instance, true when the
+     * detector signals a change and the estimated error has grown.
+     */
+    public static boolean errorIncreased(ADWIN detector, boolean correctlyClassifies) {
+        double ErrEstim = detector.getEstimation();
+        if (detector.setInput(correctlyClassifies ? 0 : 1)) {
+            if (detector.getEstimation() > ErrEstim) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
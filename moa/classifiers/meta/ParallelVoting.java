@@ -0,0 +1,217 @@
+/*
+ *    ParallelVoting.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.meta;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import moa.classifiers.Classifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Ensemble prediction over the training thread pool.
+ *
+ * <p>The members are split in contiguous partitions, one task per pool thread,
+ * and each task writes the votes of its partition into the member's own row.
+ * The calling thread then adds the rows up in member order, exactly as the
+ * serial loop does, so the combined vote is bit-identical to the serial one
+ * whatever the number of threads. Without a pool (or with a single thread) the
+ * member votes are added straight into the combined vote.</p>
+ *
+ * <p>A whole chunk is predicted with a single batch of tasks instead: each task
+ * takes a contiguous block of instances and adds up the votes of all the members
+ * for each of them, in member order, into a reusable row per instance.</p>
+ *
+ * <p>The votes are added to plain double[] rows sized to the number of classes,
+ * the member rows of the calling thread are kept between calls, so apart from
+ * the returned vote and the arrays returned by the members themselves nothing
+ * is allocated per prediction (the DoubleVector version copied every member
+ * vote and grew the combined vote).</p>
+ */
+public class ParallelVoting {
+
+    // member rows of the calling thread, reused by every single instance prediction
+    private static final ThreadLocal<double[][]> memberRows = new ThreadLocal<>();
+
+    /***
+     * Adds the vote of one member for one instance, already normalized (and weighted), to row.
+     * Members that do not vote leave row untouched.
+     */
+    public interface MemberVote {
+        void addVote(int member, Instance instance, double[] row);
+    }
+
+    /***
+     * Normalized vote of a bagging member.
+     */
+    public static MemberVote normalized(final Classifier[] members) {
+        return (member, instance, row) -> addNormalized(members[member].getVotesForInstance(instance), 1.0, row);
+    }
+
+    /***
+     * Adds vote, normalized and multiplied by weight, to row when it has a positive sum.
+     * Same operations, in the same order, as new DoubleVector(vote), normalize(), scaling
+     * by weight and DoubleVector.addValues(), without copying the vote.
+     */
+    public static void addNormalized(double[] vote, double weight, double[] row) {
+        double sum = 0.0;
+        for (double v : vote)
+            sum += v;
+        if (sum > 0.0) {
+            double scale = 1.0 / sum;
+            int length = Math.min(vote.length, row.length);
+            if (weight == 1.0) {
+                for (int c = 0; c < length; c++)
+                    row[c] += vote[c] * scale;
+            } else {
+                for (int c = 0; c < length; c++)
+                    row[c] += (vote[c] * scale) * weight;
+            }
+        }
+    }
+
+    /***
+     * Sum of the normalized votes of the members, as computed by the bagging ensembles.
+     */
+    public static double[] combine(ExecutorService pool, Classifier[] members, Instance instance) {
+        return combine(pool, members.length, instance, normalized(members));
+    }
+
+    public static double[] combine(ExecutorService pool, int numberOfMembers, final Instance instance,
+                                   final MemberVote memberVote) {
+        final int numClasses = instance.numClasses();
+        double[] combinedVote = new double[numClasses];
+        int partitions = pool == null ? 1 : Math.min(numberOfMembers, parallelism(pool));
+        if (partitions <= 1) {
+            for (int i = 0; i < numberOfMembers; i++)
+                memberVote.addVote(i, instance, combinedVote);
+            return combinedVote;
+        }
+        final double[][] rows = memberRows(numberOfMembers, numClasses);
+        List<Callable<Integer>> tasks = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            final int from = (int) ((long) p * numberOfMembers / partitions);
+            final int to = (int) ((long) (p + 1) * numberOfMembers / partitions);
+            tasks.add(() -> {
+                for (int i = from; i < to; i++) {
+                    Arrays.fill(rows[i], 0.0);
+                    memberVote.addVote(i, instance, rows[i]);
+                }
+                return 0;
+            });
+        }
+        run(pool, tasks);
+        for (int i = 0; i < numberOfMembers; i++) {
+            double[] row = rows[i];
+            for (int c = 0; c < numClasses; c++)
+                combinedVote[c] += row[c];
+        }
+        return combinedVote;
+    }
+
+    /***
+     * Sum of the normalized votes of the members for every instance of the chunk.
+     */
+    public static double[][] combine(ExecutorService pool, Classifier[] members, Instances instances,
+                                     double[][] buffer) {
+        return combine(pool, members.length, instances, normalized(members), buffer);
+    }
+
+    /***
+     * Combined votes for every instance of the chunk, written into the rows of buffer
+     * when it has one row per instance (a new buffer is returned otherwise).
+     */
+    public static double[][] combine(ExecutorService pool, final int numberOfMembers, final Instances instances,
+                                     final MemberVote memberVote, double[][] buffer) {
+        final int numInstances = instances.numInstances();
+        final double[][] rows = (buffer != null && buffer.length == numInstances) ? buffer : new double[numInstances][];
+        final int numClasses = instances.numClasses();
+        int partitions = pool == null ? 1 : Math.min(numInstances, parallelism(pool));
+        if (partitions <= 1) {
+            combineRows(numberOfMembers, instances, memberVote, rows, numClasses, 0, numInstances);
+            return rows;
+        }
+        List<Callable<Integer>> tasks = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            final int from = (int) ((long) p * numInstances / partitions);
+            final int to = (int) ((long) (p + 1) * numInstances / partitions);
+            tasks.add(() -> {
+                combineRows(numberOfMembers, instances, memberVote, rows, numClasses, from, to);
+                return 0;
+            });
+        }
+        run(pool, tasks);
+        return rows;
+    }
+
+    private static void combineRows(int numberOfMembers, Instances instances, MemberVote memberVote,
+                                    double[][] rows, int numClasses, int from, int to) {
+        for (int i = from; i < to; i++) {
+            Instance instance = instances.instance(i);
+            double[] row = rows[i];
+            if (row == null || row.length != numClasses)
+                row = new double[numClasses];
+            else
+                Arrays.fill(row, 0.0);
+            for (int m = 0; m < numberOfMembers; m++)
+                memberVote.addVote(m, instance, row);
+            rows[i] = row;
+        }
+    }
+
+    private static double[][] memberRows(int numberOfMembers, int numClasses) {
+        double[][] rows = memberRows.get();
+        if (rows == null || rows.length != numberOfMembers || rows[0].length != numClasses) {
+            rows = new double[numberOfMembers][numClasses];
+            memberRows.set(rows);
+        }
+        return rows;
+    }
+
+    private static void run(ExecutorService pool, List<Callable<Integer>> tasks) {
+        try {
+            for (Future<Integer> future : pool.invokeAll(tasks))
+                future.get();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException("Could not call invokeAll() on voting threads.");
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Voting thread failed.", ex.getCause());
+        }
+    }
+
+    /***
+     * Threads of pool voting at once, the number of partitions worth creating.
+     */
+    private static int parallelism(ExecutorService pool) {
+        if (pool instanceof ThreadPoolExecutor)
+            return ((ThreadPoolExecutor) pool).getMaximumPoolSize();
+        if (pool instanceof ForkJoinPool)
+            return ((ForkJoinPool) pool).getParallelism();
+        if (pool instanceof EnsembleExecutors.BoundedExecutor)
+            return ((EnsembleExecutors.BoundedExecutor) pool).getParallelism();
+        return Runtime.getRuntime().availableProcessors();
+    }
+}
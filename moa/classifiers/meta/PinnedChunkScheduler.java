@@ -0,0 +1,190 @@
+/*
+ *    PinnedChunkScheduler.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.meta;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Long-lived scheduler for the chunk based ensembles.
+ *
+ * <p>Each worker thread owns a fixed, contiguous partition of the ensemble
+ * members for the whole run, so a member is always trained by the same thread.
+ * Chunks are published by the (single) training thread into a ring buffer that
+ * every worker reads with its own cursor, and each published chunk carries one
+ * latch that is released when all workers are done with their partition.
+ * This replaces one future per member and one invokeAll() barrier per chunk.</p>
+ *
+ * <p>With a {@link ThreadAffinity}, every worker binds itself to its CPUs or
+ * NUMA node before its first chunk and the constructor returns once all the
+ * workers are placed; {@link #placementReport()} tells where each one runs.</p>
+ */
+public class PinnedChunkScheduler {
+
+    /***
+     * Training work of one ensemble member on one chunk.
+     */
+    public interface MemberTask {
+        void train(int member, SharedChunk chunk);
+    }
+
+    private final MemberTask task;
+
+    private final Thread[] workers;
+
+    // worker w owns the members in [partitionStart[w], partitionStart[w + 1])
+    private final int[] partitionStart;
+
+    private final SharedChunk[] ringChunks;
+
+    private final CountDownLatch[] ringLatches;
+
+    private final int mask;
+
+    // null when the workers are not bound
+    private final ThreadAffinity affinity;
+
+    private final CountDownLatch placed;
+
+    // sequence of the last published chunk, read by all the workers
+    private volatile long published = -1;
+
+    private volatile boolean running = true;
+
+    private volatile Throwable failure;
+
+    // only touched by the producer
+    private long nextSequence = 0;
+
+    public PinnedChunkScheduler(int numberOfWorkers, int numberOfMembers, int ringSize, MemberTask task) {
+        this(numberOfWorkers, numberOfMembers, ringSize, ThreadAffinity.NONE, task);
+    }
+
+    /***
+     * Scheduler whose workers are bound according to affinityMode, one of the ThreadAffinity modes.
+     */
+    public PinnedChunkScheduler(int numberOfWorkers, int numberOfMembers, int ringSize, int affinityMode,
+                                MemberTask task) {
+        if (numberOfWorkers > numberOfMembers)
+            numberOfWorkers = numberOfMembers;
+        int capacity = ringSize <= 1 ? 1 : Integer.highestOneBit(ringSize - 1) << 1;
+        this.task = task;
+        this.mask = capacity - 1;
+        this.ringChunks = new SharedChunk[capacity];
+        this.ringLatches = new CountDownLatch[capacity];
+        this.partitionStart = new int[numberOfWorkers + 1];
+        for (int w = 0; w <= numberOfWorkers; w++)
+            this.partitionStart[w] = (int) ((long) w * numberOfMembers / numberOfWorkers);
+        ThreadAffinity placement = affinityMode == ThreadAffinity.NONE ? null
+                : new ThreadAffinity(affinityMode, numberOfWorkers);
+        this.affinity = placement != null && placement.isEnabled() ? placement : null;
+        this.placed = new CountDownLatch(this.affinity == null ? 0 : numberOfWorkers);
+        this.workers = new Thread[numberOfWorkers];
+        for (int w = 0; w < numberOfWorkers; w++) {
+            final int worker = w;
+            this.workers[w] = new Thread(() -> work(worker), "pinned-chunk-worker-" + w);
+            this.workers[w].setDaemon(true);
+            this.workers[w].start();
+        }
+        await(this.placed);
+    }
+
+    public int numberOfWorkers() {
+        return this.workers.length;
+    }
+
+    /***
+     * Publishes a chunk to all the workers and returns the latch released once
+     * every member has been trained on it.
+     */
+    public CountDownLatch publish(SharedChunk chunk) {
+        int slot = (int) (this.nextSequence & this.mask);
+        // the slot is reused only after every worker is done with the chunk it held
+        await(this.ringLatches[slot]);
+        CountDownLatch latch = new CountDownLatch(this.workers.length);
+        this.ringChunks[slot] = chunk;
+        this.ringLatches[slot] = latch;
+        this.published = this.nextSequence++;
+        for (Thread worker : this.workers)
+            LockSupport.unpark(worker);
+        return latch;
+    }
+
+    /***
+     * Trains every member on the chunk and blocks until all workers are done.
+     */
+    public void train(SharedChunk chunk) {
+        await(publish(chunk));
+    }
+
+    /***
+     * Where each worker runs, null when the workers are not bound.
+     */
+    public String placementReport() {
+        return this.affinity == null ? null : this.affinity.report();
+    }
+
+    public void shutdown() {
+        this.running = false;
+        for (Thread worker : this.workers)
+            LockSupport.unpark(worker);
+    }
+
+    private void await(CountDownLatch latch) {
+        if (latch == null)
+            return;
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException("Interrupted while waiting for the pinned workers.");
+        }
+        if (this.failure != null)
+            throw new RuntimeException("Pinned worker failed while training.", this.failure);
+    }
+
+    private void work(int worker) {
+        long sequence = 0;
+        int from = this.partitionStart[worker];
+        int to = this.partitionStart[worker + 1];
+        if (this.affinity != null) {
+            try {
+                this.affinity.bindCurrentThread(worker, this.workers.length, "[" + from + ", " + to + ")");
+            } finally {
+                this.placed.countDown();
+            }
+        }
+        while (this.running) {
+            if (this.published < sequence) {
+                LockSupport.park(this);
+                continue;
+            }
+            int slot = (int) (sequence & this.mask);
+            SharedChunk chunk = this.ringChunks[slot];
+            CountDownLatch latch = this.ringLatches[slot];
+            try {
+                for (int m = from; m < to; m++)
+                    this.task.train(m, chunk);
+            } catch (Throwable t) {
+                this.failure = t;
+            } finally {
+                latch.countDown();
+            }
+            sequence++;
+        }
+    }
+}
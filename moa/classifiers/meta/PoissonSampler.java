@@ -0,0 +1,236 @@
+/*
+ *    PoissonSampler.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.meta;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Batched Poisson(lambda) sampler owned by a single ensemble member.
+ *
+ * <p>For the small lambdas used by online bagging the cumulative distribution
+ * is tabulated once and every draw is an inverse transform: one uniform number
+ * and a lookup in a guide table that points at the first candidate count, so
+ * a draw costs one comparison on average instead of the exp() and the loop of
+ * MiscUtils.poisson(). Larger lambdas use the same method as MiscUtils.poisson().</p>
+ *
+ * <p>Each member owns its sampler and its random stream, split in member order
+ * from a root seeded with the ensemble seed (see {@link #forMembers}). The
+ * weights drawn for a member therefore depend only on the seed and the member
+ * index, not on the order the members are sampled in nor on the thread that
+ * samples them, so every execution mode of an ensemble draws the same weights
+ * for a given seed. Drawing does not contend on a shared (synchronized)
+ * java.util.Random either.</p>
+ *
+ * <p>The stream is the SplitMix64 generator of java.util.SplittableRandom,
+ * which is not serializable: it is kept here as two longs, so a copy of the
+ * ensemble draws the same weights the original would have drawn.</p>
+ */
+public class PoissonSampler implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    // above this lambda the table gets long and the weights are drawn one by one
+    protected static final double TABLE_LAMBDA_LIMIT = 32.0;
+
+    // the tail beyond this probability is folded into the last entry of the table
+    protected static final double TAIL_PROBABILITY = 1e-15;
+
+    private final double lambda;
+
+    // state of the SplitMix64 stream
+    private long seed;
+
+    private final long gamma;
+
+    // cdf[k] = P(X <= k), the last entry is 1.0
+    private final double[] cdf;
+
+    // guide[j] = smallest k such that cdf[k] > j / guide.length
+    private final int[] guide;
+
+    public PoissonSampler(double lambda, long seed, long gamma) {
+        this.lambda = lambda;
+        this.seed = seed;
+        this.gamma = gamma;
+        if (lambda > 0.0 && lambda <= TABLE_LAMBDA_LIMIT) {
+            this.cdf = buildTable(lambda);
+            this.guide = new int[this.cdf.length];
+            int k = 0;
+            for (int j = 0; j < this.guide.length; j++) {
+                double u = (double) j / this.guide.length;
+                while (this.cdf[k] <= u)
+                    k++;
+                this.guide[j] = k;
+            }
+        } else {
+            this.cdf = null;
+            this.guide = null;
+        }
+    }
+
+    /***
+     * One sampler per ensemble member, member i always gets the i-th split of the seed.
+     */
+    public static PoissonSampler[] forMembers(double lambda, long seed, int numberOfMembers) {
+        // the root stream, split as SplittableRandom.split() does
+        PoissonSampler root = new PoissonSampler(0.0, seed, GOLDEN_GAMMA);
+        PoissonSampler[] samplers = new PoissonSampler[numberOfMembers];
+        for (int i = 0; i < numberOfMembers; i++)
+            samplers[i] = new PoissonSampler(lambda, root.nextLong(), mixGamma(root.nextSeed()));
+        return samplers;
+    }
+
+    public double getLambda() {
+        return this.lambda;
+    }
+
+    /***
+     * Uniform draw in [0, 1) from the member's stream, for the weights that are not Poisson (e.g. LeveragingBagME).
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    /***
+     * Coin flip from the member's stream (e.g. LeveragingBagHalf).
+     */
+    public boolean nextBoolean() {
+        return mix32(nextSeed()) < 0;
+    }
+
+    /***
+     * Draws a single weight.
+     */
+    public int next() {
+        if (this.cdf == null)
+            return this.lambda > 0.0 ? poisson(this.lambda) : 0;
+        double u = nextDouble();
+        int k = this.guide[(int) (u * this.guide.length)];
+        while (this.cdf[k] <= u)
+            k++;
+        return k;
+    }
+
+    /***
+     * Fills the first length positions of target with independent draws.
+     */
+    public void fill(int[] target, int length) {
+        if (this.cdf == null) {
+            for (int i = 0; i < length; i++)
+                target[i] = next();
+            return;
+        }
+        final double[] cdf = this.cdf;
+        final int[] guide = this.guide;
+        for (int i = 0; i < length; i++) {
+            double u = nextDouble();
+            int k = guide[(int) (u * guide.length)];
+            while (cdf[k] <= u)
+                k++;
+            target[i] = k;
+        }
+    }
+
+    private long nextSeed() {
+        return this.seed += this.gamma;
+    }
+
+    private long nextLong() {
+        return mix64(nextSeed());
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static int mix32(long z) {
+        z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+        return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+    }
+
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int n = Long.bitCount(z ^ (z >>> 1));
+        return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+
+    /***
+     * Same method as MiscUtils.poisson(), which only accepts a java.util.Random.
+     */
+    private int poisson(double lambda) {
+        if (lambda < 100.0) {
+            double product = 1.0;
+            double sum = 1.0;
+            double threshold = nextDouble() * Math.exp(lambda);
+            int i = 1;
+            int max = Math.max(100, 10 * (int) Math.ceil(lambda));
+            while ((i < max) && (sum <= threshold)) {
+                product *= (lambda / i);
+                sum += product;
+                i++;
+            }
+            return i - 1;
+        }
+        double x = lambda + Math.sqrt(lambda) * gaussian();
+        if (x < 0.0) {
+            return 0;
+        }
+        return (int) Math.floor(x);
+    }
+
+    private double gaussian() {
+        double v1, v2, s;
+        do {
+            v1 = 2 * nextDouble() - 1;
+            v2 = 2 * nextDouble() - 1;
+            s = v1 * v1 + v2 * v2;
+        } while (s >= 1 || s == 0);
+        return v1 * Math.sqrt(-2 * Math.log(s) / s);
+    }
+
+    private static double[] buildTable(double lambda) {
+        double[] table = new double[16];
+        double p = Math.exp(-lambda);
+        double sum = p;
+        int k = 0;
+        table[0] = sum;
+        while (1.0 - sum > TAIL_PROBABILITY) {
+            k++;
+            if (k == table.length)
+                table = Arrays.copyOf(table, table.length * 2);
+            p *= lambda / k;
+            sum += p;
+            table[k] = sum;
+            // the terms have become too small to move the sum any further
+            if (p < TAIL_PROBABILITY && k > lambda)
+                break;
+        }
+        double[] cdf = Arrays.copyOf(table, k + 1);
+        cdf[k] = 1.0;
+        return cdf;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *    SharedChunk.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.meta;
+
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+/**
+ * Read-only chunk shared by all the members of a chunk based ensemble.
+ *
+ * <p>The attribute values are extracted once per chunk and the instances of
+ * the chunk are never copied nor re-weighted by the training threads. Each
+ * member trains on its own {@link View}, a reusable instance refilled from the
+ * shared values, which the member may re-weight in place, so the memory
+ * allocated per chunk depends on the chunk size only, not on the ensemble
+ * size. The per-instance strategies of {@link EnsembleEngine} refill the same
+ * views from the instance being trained instead of copying it.</p>
+ *
+ * <p>A view is refilled for the next instance: a base learner that keeps the
+ * instances it trains on (e.g. kNN) sees them change.</p>
+ */
+public class SharedChunk {
+
+    private final Instances instances;
+
+    private final double[][] values;
+
+    public SharedChunk(Instances instances) {
+        this.instances = instances;
+        this.values = new double[instances.numInstances()][];
+        for (int i = 0; i < this.values.length; i++)
+            this.values[i] = instances.instance(i).toDoubleArray();
+    }
+
+    public int numInstances() {
+        return this.values.length;
+    }
+
+    /***
+     * Fills the member's view with the instance at index, from the values extracted for the chunk.
+     */
+    public Instance view(int index, View view) {
+        Instance source = this.instances.instance(index);
+        double[] sourceValues = this.values[index];
+        Instance target = view.prepare(source);
+        for (int j = 0; j < sourceValues.length; j++)
+            target.setValue(j, sourceValues[j]);
+        target.setWeight(source.weight());
+        return target;
+    }
+
+    /***
+     * Reusable instance owned by a single ensemble member.
+     */
+    public static class View {
+        private Instance instance;
+
+        /***
+         * Fills the view with source, outside of a chunk.
+         */
+        public Instance of(Instance source) {
+            Instance target = prepare(source);
+            for (int j = 0; j < source.numAttributes(); j++)
+                target.setValue(j, source.value(j));
+            target.setWeight(source.weight());
+            return target;
+        }
+
+        private Instance prepare(Instance source) {
+            if (this.instance == null || this.instance.numAttributes() != source.numAttributes()) {
+                this.instance = new DenseInstance(source.numAttributes());
+                this.instance.setDataset(source.dataset());
+            } else if (this.instance.dataset() != source.dataset()) {
+                this.instance.setDataset(source.dataset());
+            }
+            return this.instance;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ *    ThreadAffinity.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.meta;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Placement of the workers of the chunk based ensembles on the CPUs and NUMA nodes of a Linux box.
+ *
+ * <p>The CPUs the JVM may run on (after numactl or taskset in exec.sh) are
+ * read from /proc/self/status, their node and core from /sys. They are ordered
+ * node by node, the first hardware thread of every core before the second ones,
+ * so consecutive workers, which own consecutive partitions of the ensemble,
+ * share a node and its last level cache and get a core of their own while
+ * there are enough. With CPU placement worker w is bound to the w-th CPU of
+ * that order, with NODE placement to all the CPUs of its node, the workers
+ * being split in contiguous blocks over the nodes.</p>
+ *
+ * <p>The JVM has no sched_setaffinity(), a worker binds itself by running
+ * <code>taskset -p -c</code> on its own thread id, read from
+ * /proc/thread-self. On any other system, or when taskset fails, the worker
+ * is left unbound and the placement report says so. The member models grow
+ * on the worker owning them, so their memory is first touched by that worker;
+ * with -XX:+UseNUMA the JVM takes it from the worker's node.</p>
+ */
+public class ThreadAffinity {
+
+    public static final int NONE = 0;
+
+    public static final int CPU = 1;
+
+    public static final int NODE = 2;
+
+    public static final String[] MODES = {"none", "cpu", "node"};
+
+    public static final String[] MODE_DESCRIPTIONS = {
+            "Workers run on any CPU.",
+            "Each worker is bound to one CPU, cores of the same node first.",
+            "Each worker is bound to the CPUs of one NUMA node."};
+
+    private final int mode;
+
+    // allowed CPUs in placement order
+    private final int[] cpus;
+
+    // NUMA node of each entry of cpus
+    private final int[] nodes;
+
+    private final int[] nodeIds;
+
+    private final String[] placements;
+
+    public ThreadAffinity(int mode, int numberOfWorkers) {
+        this.mode = mode;
+        int[] allowed = allowedCpus();
+        int[] nodeOf = new int[allowed.length];
+        int[] rank = new int[allowed.length];
+        for (int i = 0; i < allowed.length; i++) {
+            nodeOf[i] = nodeOf(allowed[i]);
+            rank[i] = siblingRank(allowed[i]);
+        }
+        Integer[] order = new Integer[allowed.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, Comparator.<Integer>comparingInt(i -> nodeOf[i]).thenComparingInt(i -> rank[i])
+                .thenComparingInt(i -> allowed[i]));
+        this.cpus = new int[allowed.length];
+        this.nodes = new int[allowed.length];
+        for (int i = 0; i < order.length; i++) {
+            this.cpus[i] = allowed[order[i]];
+            this.nodes[i] = nodeOf[order[i]];
+        }
+        this.nodeIds = Arrays.stream(this.nodes).distinct().toArray();
+        this.placements = new String[numberOfWorkers];
+    }
+
+    public boolean isEnabled() {
+        return this.mode != NONE && this.cpus.length > 0;
+    }
+
+    /***
+     * CPUs worker is bound to, in the taskset list format.
+     */
+    public String cpuList(int worker, int numberOfWorkers) {
+        if (this.mode == CPU)
+            return Integer.toString(this.cpus[worker % this.cpus.length]);
+        int node = this.nodeIds[(int) ((long) worker * this.nodeIds.length / numberOfWorkers)];
+        StringBuilder list = new StringBuilder();
+        for (int i = 0; i < this.cpus.length; i++) {
+            if (this.nodes[i] == node)
+                list.append(list.length() == 0 ? "" : ",").append(this.cpus[i]);
+        }
+        return list.toString();
+    }
+
+    /***
+     * Binds the calling thread, worker number worker, to its CPUs and records the outcome for the report.
+     *
+     * @return true if the thread is bound
+     */
+    public boolean bindCurrentThread(int worker, int numberOfWorkers, String members) {
+        String cpuList = cpuList(worker, numberOfWorkers);
+        String tid = "?";
+        String outcome;
+        try {
+            // "<pid>/task/<tid>"
+            tid = Files.readSymbolicLink(Paths.get("/proc/thread-self")).getFileName().toString();
+            Process taskset = new ProcessBuilder("taskset", "-p", "-c", cpuList, tid)
+                    .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+            if (!taskset.waitFor(5, TimeUnit.SECONDS)) {
+                taskset.destroy();
+                outcome = "not bound (taskset timed out)";
+            } else {
+                outcome = taskset.exitValue() == 0 ? "bound" : "not bound (taskset exit " + taskset.exitValue() + ")";
+            }
+        } catch (IOException | UnsupportedOperationException ex) {
+            outcome = "not bound (" + ex.getMessage() + ")";
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            outcome = "not bound (interrupted)";
+        }
+        this.placements[worker] = String.format("worker %d tid %s members %s cpus %s node %s: %s",
+                worker, tid, members, cpuList, nodesOf(cpuList), outcome);
+        return outcome.equals("bound");
+    }
+
+    /***
+     * One line per worker: thread id, members, CPUs, node and whether it is bound.
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder("Placement (" + MODES[this.mode] + ", allowed cpus "
+                + Arrays.toString(this.cpus) + "):");
+        for (String placement : this.placements)
+            sb.append(System.lineSeparator()).append("  ").append(placement == null ? "not started" : placement);
+        return sb.toString();
+    }
+
+    private String nodesOf(String cpuList) {
+        List<Integer> listed = new ArrayList<>();
+        for (String cpu : cpuList.split(","))
+            listed.add(Integer.parseInt(cpu));
+        StringBuilder sb = new StringBuilder();
+        for (int node : this.nodeIds) {
+            for (int i = 0; i < this.cpus.length; i++) {
+                if (this.nodes[i] == node && listed.contains(this.cpus[i])) {
+                    sb.append(sb.length() == 0 ? "" : ",").append(node);
+                    break;
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /***
+     * CPUs the process may run on, all the available processors when /proc is not there.
+     */
+    public static int[] allowedCpus() {
+        try (Stream<String> lines = Files.lines(Paths.get("/proc/self/status"), StandardCharsets.UTF_8)) {
+            String list = lines.filter(line -> line.startsWith("Cpus_allowed_list:")).findFirst()
+                    .map(line -> line.substring(line.indexOf(':') + 1).trim()).orElse(null);
+            if (list != null)
+                return parseList(list);
+        } catch (IOException ex) {
+            // not Linux
+        }
+        int[] cpus = new int[Runtime.getRuntime().availableProcessors()];
+        for (int i = 0; i < cpus.length; i++)
+            cpus[i] = i;
+        return cpus;
+    }
+
+    /***
+     * NUMA node of cpu, 0 when the box has no node information.
+     */
+    public static int nodeOf(int cpu) {
+        Path nodeDir = Paths.get("/sys/devices/system/node");
+        if (!Files.isDirectory(nodeDir))
+            return 0;
+        try (Stream<Path> entries = Files.list(nodeDir)) {
+            for (Path entry : (Iterable<Path>) entries::iterator) {
+                String name = entry.getFileName().toString();
+                if (!name.matches("node\\d+"))
+                    continue;
+                int[] nodeCpus = parseList(read(entry.resolve("cpulist")));
+                for (int c : nodeCpus) {
+                    if (c == cpu)
+                        return Integer.parseInt(name.substring(4));
+                }
+            }
+        } catch (IOException | NumberFormatException ex) {
+            // no node information
+        }
+        return 0;
+    }
+
+    /***
+     * Position of cpu among the hardware threads of its core: 0 for the first one.
+     */
+    private static int siblingRank(int cpu) {
+        try {
+            int[] siblings = parseList(read(Paths.get("/sys/devices/system/cpu/cpu" + cpu + "/topology/thread_siblings_list")));
+            for (int i = 0; i < siblings.length; i++) {
+                if (siblings[i] == cpu)
+                    return i;
+            }
+        } catch (IOException | NumberFormatException ex) {
+            // no topology information
+        }
+        return 0;
+    }
+
+    private static String read(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim();
+    }
+
+    /***
+     * Parses a Linux CPU list such as "0-3,8,10-11".
+     */
+    static int[] parseList(String list) {
+        List<Integer> cpus = new ArrayList<>();
+        for (String range : list.split(",")) {
+            range = range.trim();
+            if (range.isEmpty())
+                continue;
+            int dash = range.indexOf('-');
+            int from = Integer.parseInt(dash < 0 ? range : range.substring(0, dash));
+            int to = dash < 0 ? from : Integer.parseInt(range.substring(dash + 1));
+            for (int c = from; c <= to; c++)
+                cpus.add(c);
+        }
+        return cpus.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ *    ColumnarFileStream.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams;
+
+import com.github.javacliparser.FileOption;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import moa.core.InstanceExample;
+import moa.core.ObjectRepository;
+import moa.options.AbstractOptionHandler;
+import moa.tasks.TaskMonitor;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Stream reading instances from a memory mapped columnar file, written by ConvertArffToColumnar.
+ *
+ * <p>The file holds the ARFF header text of the original file and every
+ * attribute as a column of fixed width values: float64 for numeric attributes,
+ * the index of the label in 1 or 2 bytes for nominal ones (-1 when missing).
+ * Opening the stream only parses the header, the columns are mapped and read
+ * in place, so a run does not pay the text parsing of the ARFF file.</p>
+ *
+ * <pre>
+ * int    MAGIC ("MOAC")
+ * int    VERSION
+ * int    class index
+ * int    number of attributes
+ * long   number of instances
+ * int    length of the header text, then the header text (UTF-8)
+ * byte   width of each column (1, 2 or 8)
+ * byte   1 if a weight column follows the attribute columns
+ * then every column, starting at a multiple of 8
+ * </pre>
+ */
+public class ColumnarFileStream extends AbstractOptionHandler implements InstanceStream {
+
+    @Override
+    public String getPurposeString() {
+        return "A stream read from a columnar file converted from an ARFF file.";
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int MAGIC = 0x4D4F4143;
+
+    public static final int VERSION = 1;
+
+    public static final byte WIDTH_BYTE = 1;
+
+    public static final byte WIDTH_SHORT = 2;
+
+    public static final byte WIDTH_DOUBLE = 8;
+
+    public FileOption columnarFileOption = new FileOption("columnarFile", 'f',
+            "Columnar file to load.", null, "moac", false);
+
+    protected InstancesHeader header;
+
+    protected transient ByteBuffer[] columns;
+
+    protected transient ByteBuffer weights;
+
+    protected byte[] widths;
+
+    protected long numInstances;
+
+    protected int row;
+
+    public ColumnarFileStream() {
+    }
+
+    public ColumnarFileStream(String columnarFileName) {
+        this.columnarFileOption.setValue(columnarFileName);
+        restart();
+    }
+
+    @Override
+    public void prepareForUseImpl(TaskMonitor monitor, ObjectRepository repository) {
+        restart();
+    }
+
+    @Override
+    public InstancesHeader getHeader() {
+        return this.header;
+    }
+
+    @Override
+    public long estimatedRemainingInstances() {
+        return this.numInstances - this.row;
+    }
+
+    @Override
+    public boolean hasMoreInstances() {
+        return this.row < this.numInstances;
+    }
+
+    @Override
+    public InstanceExample nextInstance() {
+        int r = this.row++;
+        double[] values = new double[this.widths.length];
+        for (int a = 0; a < values.length; a++) {
+            ByteBuffer column = this.columns[a];
+            switch (this.widths[a]) {
+                case WIDTH_BYTE: {
+                    byte v = column.get(r);
+                    values[a] = v < 0 ? Double.NaN : v;
+                    break;
+                }
+                case WIDTH_SHORT: {
+                    short v = column.getShort(r * Short.BYTES);
+                    values[a] = v < 0 ? Double.NaN : v;
+                    break;
+                }
+                default:
+                    values[a] = column.getDouble(r * Double.BYTES);
+            }
+        }
+        double weight = this.weights == null ? 1.0 : this.weights.getDouble(r * Double.BYTES);
+        Instance instance = new DenseInstance(weight, values);
+        instance.setDataset(this.header);
+        return new InstanceExample(instance);
+    }
+
+    @Override
+    public boolean isRestartable() {
+        return true;
+    }
+
+    @Override
+    public void restart() {
+        if (this.columns == null)
+            open();
+        this.row = 0;
+    }
+
+    @Override
+    public void getDescription(StringBuilder sb, int indent) {
+        // TODO Auto-generated method stub
+    }
+
+    /***
+     * Reads the header and maps every column of the file.
+     */
+    protected void open() {
+        try (FileChannel channel = FileChannel.open(this.columnarFileOption.getFile().toPath(), StandardOpenOption.READ)) {
+            ByteBuffer fixed = ByteBuffer.allocate(Integer.BYTES * 5 + Long.BYTES);
+            channel.read(fixed, 0);
+            fixed.flip();
+            if (fixed.remaining() < fixed.capacity() || fixed.getInt() != MAGIC)
+                throw new RuntimeException("Not a columnar file: " + this.columnarFileOption.getFile());
+            if (fixed.getInt() != VERSION)
+                throw new RuntimeException("Unsupported version of the columnar file: " + this.columnarFileOption.getFile());
+            int classIndex = fixed.getInt();
+            int numAttributes = fixed.getInt();
+            this.numInstances = fixed.getLong();
+            if (this.numInstances > Integer.MAX_VALUE / Double.BYTES)
+                throw new RuntimeException("Too many instances in " + this.columnarFileOption.getFile() + " to map the columns.");
+            int headerLength = fixed.getInt();
+            long position = fixed.capacity();
+
+            ByteBuffer headerBytes = ByteBuffer.allocate(headerLength + numAttributes + 1);
+            channel.read(headerBytes, position);
+            headerBytes.flip();
+            byte[] text = new byte[headerLength];
+            headerBytes.get(text);
+            this.widths = new byte[numAttributes];
+            headerBytes.get(this.widths);
+            boolean hasWeights = headerBytes.get() == 1;
+            position += headerBytes.capacity();
+
+            Instances instances = new Instances(new StringReader(new String(text, StandardCharsets.UTF_8)), 1, -1);
+            instances.setClassIndex(classIndex);
+            this.header = new InstancesHeader(instances);
+
+            this.columns = new ByteBuffer[numAttributes];
+            for (int a = 0; a < numAttributes; a++) {
+                position = align(position);
+                long size = this.numInstances * this.widths[a];
+                this.columns[a] = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                position += size;
+            }
+            if (hasWeights) {
+                position = align(position);
+                this.weights = channel.map(FileChannel.MapMode.READ_ONLY, position, this.numInstances * Double.BYTES);
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("ColumnarFileStream restart failed.", ioe);
+        }
+    }
+
+    /***
+     * Columns start at a multiple of 8 bytes.
+     */
+    public static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ *    BinaryInstanceParser.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.Instances;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decoder of the binary framed wire format of the Channel tasks.
+ *
+ * <p>Everything is big endian. The producer first sends a header frame, built
+ * from the @attribute section of its ARFF file:</p>
+ * <pre>
+ * int   MAGIC ("MOAB")
+ * byte  VERSION
+ * byte  width of the values, 8 (float64) or 4 (float32)
+ * int   number of attributes
+ * int   number of values of each attribute, 0 for numeric ones
+ * </pre>
+ * <p>then one frame per instance: an int with the length of the payload and the
+ * value of every attribute (the index of the label for nominal ones, NaN when
+ * missing). A length of -1 ends the stream. The header must match the header of
+ * the stream of the task, otherwise the task stops: values would be decoded
+ * into the wrong attributes.</p>
+ *
+ * <p>A frame whose payload does not hold exactly one value per attribute is
+ * skipped and its values counted as malformed.</p>
+ */
+public class BinaryInstanceParser implements InstanceDecoder {
+
+    public static final int MAGIC = 0x4D4F4142;
+
+    public static final byte VERSION = 1;
+
+    public static final int END_OF_STREAM = -1;
+
+    private final int numAttributes;
+
+    // number of values of each attribute of the task's header, 0 for numeric
+    private final int[] numValues;
+
+    // 0 until the header frame is read
+    private int width;
+
+    private boolean endOfStream;
+
+    private long malformedFields;
+
+    public BinaryInstanceParser(Instances header) {
+        this.numAttributes = header.numAttributes();
+        this.numValues = numValues(header);
+    }
+
+    @Override
+    public int numAttributes() {
+        return this.numAttributes;
+    }
+
+    @Override
+    public boolean isEndOfStream() {
+        return this.endOfStream;
+    }
+
+    @Override
+    public long getMalformedFields() {
+        return this.malformedFields;
+    }
+
+    @Override
+    public boolean next(ByteBuffer buffer, double[] values) {
+        if (this.width == 0 && !readHeader(buffer))
+            return false;
+        while (!this.endOfStream) {
+            if (buffer.remaining() < Integer.BYTES)
+                return false;
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            if (length == END_OF_STREAM) {
+                buffer.position(start + Integer.BYTES);
+                this.endOfStream = true;
+                return false;
+            }
+            if (length < 0)
+                throw new RuntimeException("Corrupted frame, length " + length + ".");
+            if (buffer.remaining() < Integer.BYTES + length) {
+                if (Integer.BYTES + length > buffer.capacity())
+                    throw new RuntimeException("Frame longer than the read buffer (" + buffer.capacity() + " bytes).");
+                return false;
+            }
+            int payload = start + Integer.BYTES;
+            buffer.position(payload + length);
+            if (length != this.numAttributes * this.width) {
+                this.malformedFields += this.numAttributes;
+                continue;
+            }
+            if (this.width == Double.BYTES) {
+                for (int a = 0; a < this.numAttributes; a++)
+                    values[a] = buffer.getDouble(payload + a * Double.BYTES);
+            } else {
+                for (int a = 0; a < this.numAttributes; a++)
+                    values[a] = buffer.getFloat(payload + a * Float.BYTES);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private boolean readHeader(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.remaining() < Integer.BYTES * 2 + 2)
+            return false;
+        if (buffer.getInt(start) != MAGIC)
+            throw new RuntimeException("The producer does not send the binary format.");
+        if (buffer.get(start + 4) != VERSION)
+            throw new RuntimeException("Unsupported version " + buffer.get(start + 4) + " of the binary format.");
+        int width = buffer.get(start + 5);
+        if (width != Double.BYTES && width != Float.BYTES)
+            throw new RuntimeException("Unsupported width " + width + " of the values.");
+        int attributes = buffer.getInt(start + 6);
+        if (attributes != this.numAttributes)
+            throw new RuntimeException("The producer sends " + attributes + " attributes, the stream has " + this.numAttributes + ".");
+        int size = Integer.BYTES * 2 + 2 + Integer.BYTES * attributes;
+        if (buffer.remaining() < size)
+            return false;
+        for (int a = 0; a < attributes; a++) {
+            int n = buffer.getInt(start + 10 + a * Integer.BYTES);
+            if (n != this.numValues[a])
+                throw new RuntimeException("Attribute " + a + " of the producer has " + n
+                        + " values, the stream has " + this.numValues[a] + ".");
+        }
+        buffer.position(start + size);
+        this.width = width;
+        return true;
+    }
+
+    /***
+     * Header frame of the instances of header, with values of width bytes.
+     */
+    public static byte[] encodeHeader(Instances header, int width) {
+        int[] numValues = numValues(header);
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES * 2 + 2 + Integer.BYTES * numValues.length);
+        frame.putInt(MAGIC).put(VERSION).put((byte) width).putInt(numValues.length);
+        for (int n : numValues)
+            frame.putInt(n);
+        return frame.array();
+    }
+
+    /***
+     * Frame of one instance, with values of width bytes.
+     */
+    public static byte[] encodeInstance(double[] values, int width) {
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + values.length * width);
+        frame.putInt(values.length * width);
+        for (double v : values) {
+            if (width == Double.BYTES)
+                frame.putDouble(v);
+            else
+                frame.putFloat((float) v);
+        }
+        return frame.array();
+    }
+
+    /***
+     * End of stream frame.
+     */
+    public static byte[] encodeEndOfStream() {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(END_OF_STREAM).array();
+    }
+
+    private static int[] numValues(Instances header) {
+        int[] numValues = new int[header.numAttributes()];
+        for (int a = 0; a < numValues.length; a++) {
+            Attribute attribute = header.attribute(a);
+            numValues[a] = attribute.isNominal() ? attribute.numValues() : 0;
+        }
+        return numValues;
+    }
+}
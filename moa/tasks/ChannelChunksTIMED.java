@@ -20,8 +20,10 @@
 package moa.tasks;
 
 import com.github.javacliparser.FileOption;
+import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.IntOption;
-import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.github.javacliparser.MultiChoiceOption;
+import com.github.javacliparser.StringOption;
 import com.yahoo.labs.samoa.instances.Instance;
 import com.yahoo.labs.samoa.instances.Instances;
 import moa.capabilities.Capability;
@@ -29,8 +31,6 @@ import moa.capabilities.ImmutableCapabilities;
 import moa.classifiers.MultiClassClassifier;
 import moa.classifiers.Multithreading;
 import moa.classifiers.meta.AdaptiveRandomForest;
-import moa.core.Example;
-import moa.core.InstanceExample;
 import moa.core.Measurement;
 import moa.core.ObjectRepository;
 import moa.evaluation.LearningEvaluation;
@@ -46,10 +46,8 @@ import java.io.*;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
-import java.util.ArrayList;
-import java.util.StringTokenizer;
+import java.nio.channels.UnresolvedAddressException;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -107,46 +105,44 @@ public class ChannelChunksTIMED extends ClassificationMainTask {
     public FileOption dumpFileOption = new FileOption("dumpFile", 'd',
             "File to append intermediate csv results to.", null, "csv", true);
 
+    public IntOption maxWaitOption = new IntOption("maxWait", 'w',
+            "Maximum milliseconds an instance waits in an incomplete chunk before the chunk is processed (-1 = only process full chunks).",
+            -1, -1, Integer.MAX_VALUE);
+
+    public StringOption hostOption = new StringOption("host", 'h',
+            "Host of the producer to read the instances from.", "192.168.0.11");
+
+    public IntOption portOption = new IntOption("port", 'p',
+            "Port of the producer to read the instances from.", 9004, 1, 65535);
+
+    public IntOption localProducerRateOption = new IntOption("localProducerRate", 'n',
+            "Replay the file of the stream from an in-process producer at this rate (instances per second) over loopback, instead of connecting to host:port (0 = off).",
+            0, 0, Integer.MAX_VALUE);
+
+    public MultiChoiceOption wireFormatOption = new MultiChoiceOption("wireFormat", 'b',
+            "Format of the instances sent by the producer.",
+            new String[]{"text", "float64", "float32"},
+            new String[]{"ARFF data lines ended by '#', \"$$\" at the end",
+                    "Binary frames with float64 values (the producer chooses the width, the local producer uses this one)",
+                    "Binary frames with float32 values (the producer chooses the width, the local producer uses this one)"},
+            0);
+
+    // width of the values of each wire format, 0 = text
+    private static final int[] WIRE_FORMAT_WIDTHS = {0, Double.BYTES, Float.BYTES};
+
+    public IntOption queueCapacityOption = new IntOption("queueCapacity", 'z',
+            "Maximum number of parsed instances waiting between the socket reader and the learner.",
+            65536, 2, Integer.MAX_VALUE);
+
+    public FlagOption dropWhenFullOption = new FlagOption("dropWhenFull", 'o',
+            "Drop the instances that arrive while the queue is full instead of stopping to read the socket.");
+
     private Instances myinst;
     @Override
     public Class<?> getTaskResultType() {
         return LearningCurve.class;
     }
 
-    protected InstanceExample tokenizeLine(String line) {
-        Instance instance = new DenseInstance(myinst.numAttributes());
-        instance.setDataset(myinst);
-        StringTokenizer token = new StringTokenizer(line, ",");
-        int numAttribute = 0;
-        while (numAttribute < myinst.numAttributes()) {
-            //For each item
-            String t = token.nextToken();
-            double value = 0;
-            try {
-                value = Double.parseDouble(t);
-            } catch (NumberFormatException ex) {
-                boolean isNumeric = myinst.attribute(numAttribute).isNumeric();
-                if ("?".equals(t)) {
-                    value = Double.NaN; //Utils.missingValue();
-                } else if (isNumeric) {
-                    try {
-                        value = Double.valueOf(t).doubleValue();
-                    } catch (NumberFormatException nex) {
-                        System.out.println("linha fdp!!!!\n" + line + "\n" + nex);
-                    }
-                } else {
-                    value = this.myinst.attribute(numAttribute).indexOfValue(t);
-                }
-            }
-            instance.setValue(numAttribute, value);
-            numAttribute++;
-        }
-        return new InstanceExample(instance);
-    }
-
-
-
-
     @Override
     protected Object doMainTask(TaskMonitor monitor, ObjectRepository repository) {
         String learnerString = this.learnerOption.getValueAsCLIString();
@@ -202,127 +198,89 @@ public class ChannelChunksTIMED extends ClassificationMainTask {
         boolean firstDump = true;
         float timeTaken = 0;
 
-        SocketChannel socketChannel = null;
+        int maxWait = this.maxWaitOption.getValue();
+        SocketChannel socketChannel;
+        InetSocketAddress address = new InetSocketAddress(this.hostOption.getValue(), this.portOption.getValue());
         try {
-            socketChannel = SocketChannel.open();
-            socketChannel.connect(new InetSocketAddress("192.168.0.11", 9004));
+            int localRate = this.localProducerRateOption.getValue();
+            if (localRate > 0) {
+                // replay the stream file from this process, over loopback
+                ChannelProducer producer = new ChannelProducer(((ArffFileStream) stream).arffFileOption.getFile(),
+                        this.myinst, localRate, maxSeconds, WIRE_FORMAT_WIDTHS[this.wireFormatOption.getChosenIndex()]);
+                address = producer.bind();
+                Thread producerThread = new Thread(producer, "channel-producer");
+                producerThread.setDaemon(true);
+                producerThread.start();
+            }
+            // closes the channel if the connection fails
+            socketChannel = SocketChannel.open(address);
             System.out.println("Connected!");
-        } catch (IOException e) {
-            e.printStackTrace();
+        } catch (IOException | UnresolvedAddressException ex) {
+            throw new RuntimeException("Unable to connect to " + address, ex);
         }
 
-        ByteBuffer buffer = ByteBuffer.allocate(1048576);
-        ArrayList<TimeStamp> timestamps = new ArrayList<>();
-        boolean connection_active = true;
-        int count = 0;
-        int finished = 0;
-        String ctlstr = "", a = "";
-        String[] listOfMessages;
-        int correctlength = -1, thislength;
-        boolean brokenMessage = false;
-        String bknmsg = "";
+        InstanceRing ring = new InstanceRing(this.queueCapacityOption.getValue());
+        InstanceDecoder parser = this.wireFormatOption.getChosenIndex() == 0 ? new InstanceParser(this.myinst)
+                : new BinaryInstanceParser(this.myinst);
+        ChannelReader reader = new ChannelReader(socketChannel, this.myinst, parser, ring, this.dropWhenFullOption.isSet());
+        Thread readerThread = new Thread(reader, "channel-reader");
+        readerThread.setDaemon(true);
+        // delay of every instance, from the read that brought it to the end of the training of its chunk
+        LatencyHistogram latencies = new LatencyHistogram();
+        // arrival of the instances of the current chunk
+        long[] arrivals = new long[chunkSize];
         // Clock Time Start
         long t1 = System.currentTimeMillis();
-        int lastCompleteTS = 0;
+        long end = maxSeconds < 0 ? -1 : System.nanoTime() + maxSeconds * 1000000000L;
         boolean firstChunk = true;
 
         Instances chunkInstances = new Instances(stream.getHeader(), chunkSize);
-        long measure = 0;
-        while (connection_active) {
-            // read the list of messages from the socket
-            int bytesRead = 0;
-            try {
-                assert socketChannel != null;
-                bytesRead = socketChannel.read(buffer);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            if (bytesRead == -1) {
-                System.out.println("BYTES READ -1");
+        // System.nanoTime() at which the current (incomplete) chunk must be processed, when maxWait is set
+        long chunkDeadline = -1;
+        readerThread.start();
+        while (true) {
+            // the wait for the next instance ends at the deadline of the chunk even if nothing arrives
+            long deadline = end;
+            if (chunkDeadline >= 0 && (deadline < 0 || chunkDeadline < deadline))
+                deadline = chunkDeadline;
+            Instance instance = ring.take(deadline);
+            secondsElapsed = (System.currentTimeMillis() - t1)/1000F;
+            if (instance != null) {
+                if (chunkInstances.numInstances() == 0 && maxWait >= 0)
+                    chunkDeadline = ring.lastArrival() + maxWait * 1000000L;
+                arrivals[chunkInstances.numInstances()] = ring.lastArrival();
+                chunkInstances.add(instance);
+            } else if (ring.isDrained() || (maxSeconds >= 0 && secondsElapsed > maxSeconds)) {
                 break;
             }
-            ctlstr = "read " + bytesRead + " bytes.";
-            a = new String(buffer.array(), 0, bytesRead).trim();
-            listOfMessages = a.split("#");
-            ctlstr += " # of msgs " + listOfMessages.length;
-//            System.out.println(ctlstr);
-            buffer.clear();
-            // get timestamps
-            measure = System.currentTimeMillis();
-            for (String s : listOfMessages) {
-                String realInstance = "";
-                if (correctlength == -1) // get correct number of fields
-                    correctlength = s.split(",").length;
-                if (s.contains("$$")) { // if has the termination string, finish it
-                    connection_active = false;
-//                    System.out.println("READ $$ FINISH");
-                    count -= 1;
-                    break;
-                } else if (brokenMessage) { // second case, it is the next message after a broken one
-                    bknmsg += s;
-                    realInstance = bknmsg;
-                    count -= 1;
-                    brokenMessage = false;
-                } else {
-                    thislength = s.split(",").length;
-                    if (thislength != correctlength) { // last case, instance is broken
-                        brokenMessage = true;
-                        bknmsg = s;
-                    } else { // last case, normal instance
-                        realInstance = s;
-                    }
-                }
-                if (!realInstance.equals("")) { // if has complete Instance, process it
-                    chunkInstances.add(tokenizeLine(realInstance).getData());
-                    timestamps.add(new TimeStamp(measure));
-                    if (chunkInstances.size() == chunkSize) {
-                        ////Testing
-                        if (!firstChunk) {
-                            for (int i = 0; i < chunkInstances.numInstances(); i++) {
-                                Example testInst = new InstanceExample(chunkInstances.instance(i));
-                                double[] prediction = learner.getVotesForInstance(testInst);
-                                evaluator.addResult(testInst, prediction);
-                            }
-                        } else {
-                            firstChunk = false;
-                        }
-
-                        ////Training
-                        learner.trainOnInstances(chunkInstances);
-                        instancesProcessed += chunkInstances.numInstances();
-                        measure = System.currentTimeMillis();
-                        while (lastCompleteTS < timestamps.size()) {
-                            timestamps.get(lastCompleteTS++).setFinish(measure);
-                        }
-                        chunkInstances = new Instances(stream.getHeader(), chunkSize);
-                    }
-                    secondsElapsed = (System.currentTimeMillis() - t1)/1000F;
-                    if (secondsElapsed > maxSeconds) {
-                        // end eval
-                        connection_active = false;
-                        break;
-                    }
-                }
+            if (chunkInstances.numInstances() == chunkSize
+                    || (chunkDeadline >= 0 && System.nanoTime() >= chunkDeadline)) {
+                testAndTrain(learner, chunkInstances, evaluator, !firstChunk, arrivals, latencies);
+                firstChunk = false;
+                instancesProcessed += chunkInstances.numInstances();
+                chunkInstances = new Instances(stream.getHeader(), chunkSize);
+                chunkDeadline = -1;
+                secondsElapsed = (System.currentTimeMillis() - t1)/1000F;
+            }
+            if (maxSeconds >= 0 && secondsElapsed > maxSeconds) {
+                // end eval
+                break;
             }
         }
-        // process last chunk
-        ////Testing
-        for (int i=0; i< chunkInstances.numInstances(); i++) {
-            Example testInst = new InstanceExample(chunkInstances.instance(i));
-            double[] prediction = learner.getVotesForInstance(testInst);
-            evaluator.addResult(testInst, prediction);
+        // stop the reader, it may be blocked on a full ring or on the socket
+        ring.close();
+        try {
+            socketChannel.close();
+            readerThread.join();
+        } catch (IOException | InterruptedException ex) {
+            ex.printStackTrace();
         }
-        ////Training
-        learner.trainOnInstances(chunkInstances);
+        // process last chunk
+        testAndTrain(learner, chunkInstances, evaluator, true, arrivals, latencies);
         instancesProcessed += chunkInstances.numInstances();
-        measure = System.currentTimeMillis();
-        while (lastCompleteTS < timestamps.size()) {
-            timestamps.get(lastCompleteTS++).setFinish(measure);
-        }
 //        long t2 = System.currentTimeMillis();
         //Clock Time End
         timeTaken = secondsElapsed; //(t2 - t1) / 1000F;
-        long avgDelay = calculateDelay(timestamps);
         float outputRate = instancesProcessed/timeTaken;
         learningCurve.insertEntry(new LearningEvaluation(
                 new Measurement[]{
@@ -334,10 +292,43 @@ public class ChannelChunksTIMED extends ClassificationMainTask {
                                 , timeTaken),
                         new Measurement(
                                 "Avg Delay (ms)"
-                                , avgDelay),
+                                , latencies.getMean() / 1e6),
+                        new Measurement(
+                                "p50 Delay (ms)"
+                                , latencies.getValueAtPercentile(50.0) / 1e6),
+                        new Measurement(
+                                "p90 Delay (ms)"
+                                , latencies.getValueAtPercentile(90.0) / 1e6),
+                        new Measurement(
+                                "p99 Delay (ms)"
+                                , latencies.getValueAtPercentile(99.0) / 1e6),
+                        new Measurement(
+                                "p99.9 Delay (ms)"
+                                , latencies.getValueAtPercentile(99.9) / 1e6),
+                        new Measurement(
+                                "Max Delay (ms)"
+                                , latencies.getMax() / 1e6),
                         new Measurement(
                                 "outRate (inst/s)"
-                                , outputRate)
+                                , outputRate),
+                        new Measurement(
+                                "Max Queue Depth"
+                                , ring.getMaxDepth()),
+                        new Measurement(
+                                "Avg Queue Depth"
+                                , ring.getAverageDepth()),
+                        new Measurement(
+                                "Backpressure Events"
+                                , ring.getBackpressureEvents()),
+                        new Measurement(
+                                "Reader Stall (ms)"
+                                , ring.getProducerStallMillis()),
+                        new Measurement(
+                                "Dropped Instances"
+                                , ring.getDropped()),
+                        new Measurement(
+                                "Learner Idle (ms)"
+                                , ring.getConsumerIdleMillis())
                 },
                 evaluator, learner));
         if (immediateResultStream != null) {
@@ -350,11 +341,6 @@ public class ChannelChunksTIMED extends ClassificationMainTask {
             immediateResultStream.println(learningCurve.entryToString(learningCurve.numEntries() - 1));
             immediateResultStream.flush();
         }
-        try {
-            socketChannel.close();
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
         if (immediateResultStream != null) {
             immediateResultStream.close();
         }
@@ -379,27 +365,19 @@ public class ChannelChunksTIMED extends ClassificationMainTask {
             return new ImmutableCapabilities(Capability.VIEW_STANDARD);
     }
 
-    protected long calculateDelay(ArrayList<TimeStamp> al) {
-        long sum = 0;
-        for (TimeStamp t : al)
-            sum += t.getDelay();
-        return sum/al.size();
-    }
-
-    private class TimeStamp {
-        private long enter;
-        private long finish;
-
-        public TimeStamp(long t1) {
-            enter = t1;
-        }
-
-        public void setFinish(long t) {
-            finish = t;
-        }
-
-        public long getDelay() {
-            return finish - enter;
-        }
+    /***
+     * Tests (when test is set) and trains on the chunk, then records the delay of
+     * each instance from its arrival to the end of the training.
+     */
+    protected void testAndTrain(Learner learner, Instances chunkInstances, LearningPerformanceEvaluator evaluator,
+                                boolean test, long[] arrivals, LatencyHistogram latencies) {
+        ////Testing
+        if (test)
+            ChunkTester.testChunk(learner, chunkInstances, evaluator);
+        ////Training
+        learner.trainOnInstances(chunkInstances);
+        long measure = System.nanoTime();
+        for (int i = 0; i < chunkInstances.numInstances(); i++)
+            latencies.record(measure - arrivals[i]);
     }
 }
@@ -0,0 +1,189 @@
+/*
+ *    ChannelProducer.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import com.yahoo.labs.samoa.instances.Instances;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process stand-in for Energy-experiments/ChannelServer, so the Channel tasks run on a single box.
+ *
+ * <p>Listens on an ephemeral loopback port, accepts the connection of the task
+ * and replays the data lines of the ARFF file with the same protocol and pacing
+ * as ChannelServer: each instance followed by '#', the rate split in 5 bursts
+ * per second (the remainder spread over the bursts, so any rate is kept
+ * exactly), "$$" at the end of the file. With a width, the instances are sent
+ * in the binary format of {@link BinaryInstanceParser} instead.</p>
+ */
+public class ChannelProducer implements Runnable {
+
+    protected static final int BURSTS_PER_SECOND = 5;
+
+    private final File arffFile;
+
+    private final Instances header;
+
+    private final int instancesPerSecond;
+
+    // -1 = no limit
+    private final int maxSeconds;
+
+    // width of the values in the binary format, 0 = text format
+    private final int width;
+
+    private ServerSocketChannel serverSocketChannel;
+
+    private long instancesSent;
+
+    public ChannelProducer(File arffFile, Instances header, int instancesPerSecond, int maxSeconds, int width) {
+        this.arffFile = arffFile;
+        this.header = header;
+        this.instancesPerSecond = instancesPerSecond;
+        this.maxSeconds = maxSeconds;
+        this.width = width;
+    }
+
+    /***
+     * Opens the listening socket, the task connects to the returned address.
+     */
+    public InetSocketAddress bind() throws IOException {
+        this.serverSocketChannel = ServerSocketChannel.open();
+        this.serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        return (InetSocketAddress) this.serverSocketChannel.getLocalAddress();
+    }
+
+    @Override
+    public void run() {
+        try (ServerSocketChannel server = this.serverSocketChannel;
+             SocketChannel socketChannel = server.accept()) {
+            List<byte[]> records = encodeRecords();
+            if (this.width > 0)
+                write(socketChannel, ByteBuffer.wrap(BinaryInstanceParser.encodeHeader(this.header, this.width)));
+            long burstNanos = TimeUnit.SECONDS.toNanos(1) / BURSTS_PER_SECOND;
+            long startingAll = System.nanoTime();
+            long nextBurst = startingAll;
+            boolean keep_going = true;
+            ByteBuffer burst = ByteBuffer.allocate(ChannelReader.BUFFER_SIZE);
+            int i = 0;
+            long bursts = 0;
+            while (i < records.size() && keep_going) {
+                // instances due by the end of this burst minus the ones due by the end of the previous one
+                long perBurst = (bursts + 1) * this.instancesPerSecond / BURSTS_PER_SECOND
+                        - bursts * this.instancesPerSecond / BURSTS_PER_SECOND;
+                bursts++;
+                int num_inst = 0;
+                while (num_inst < perBurst && i < records.size() && keep_going) {
+                    if (burst.remaining() < records.get(i).length)
+                        keep_going = send(socketChannel, burst);
+                    burst.put(records.get(i++));
+                    num_inst++;
+                }
+                if (!keep_going || !send(socketChannel, burst)) {
+                    keep_going = false;
+                    break;
+                }
+                this.instancesSent += num_inst;
+                // sleep until the next burst, without accumulating the time taken to send
+                nextBurst += burstNanos;
+                long sl = nextBurst - System.nanoTime();
+                if (sl > 0)
+                    TimeUnit.NANOSECONDS.sleep(sl);
+                if (this.maxSeconds >= 0 && System.nanoTime() - startingAll > TimeUnit.SECONDS.toNanos(this.maxSeconds))
+                    keep_going = false;
+            }
+            double totalSpent = (System.nanoTime() - startingAll) / 1e9;
+            // send finish message
+            if (keep_going)
+                write(socketChannel, ByteBuffer.wrap(this.width > 0 ? BinaryInstanceParser.encodeEndOfStream()
+                        : "$$".getBytes(StandardCharsets.UTF_8)));
+            System.out.println("Total Time Producer (s): " + totalSpent);
+            System.out.println("Total instances Producer: " + this.instancesSent);
+            System.out.println("Producer Rate (inst per second): " + this.instancesSent / totalSpent);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /***
+     * Data lines of the file, as they are sent: each line followed by '#' in the text format, its frame in the binary one.
+     */
+    private List<byte[]> encodeRecords() throws IOException {
+        List<String> lines = Files.readAllLines(this.arffFile.toPath());
+        int i = 0;
+        while (i < lines.size() && !lines.get(i).toLowerCase().contains("@data"))
+            i++;
+        i++;
+        InstanceParser parser = new InstanceParser(this.header);
+        List<byte[]> records = new ArrayList<>(Math.max(0, lines.size() - i));
+        for (; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.isEmpty() || line.startsWith("%"))
+                continue;
+            byte[] text = (line + "#").getBytes(StandardCharsets.UTF_8);
+            if (this.width == 0) {
+                records.add(text);
+            } else {
+                double[] values = new double[parser.numAttributes()];
+                if (parser.next(ByteBuffer.wrap(text), values))
+                    records.add(BinaryInstanceParser.encodeInstance(values, this.width));
+            }
+        }
+        return records;
+    }
+
+    public long getInstancesSent() {
+        return this.instancesSent;
+    }
+
+    private static void write(SocketChannel socketChannel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            socketChannel.write(buffer);
+    }
+
+    /***
+     * Writes the bytes batched in burst and clears it.
+     *
+     * @return false if the task closed the connection
+     */
+    private static boolean send(SocketChannel socketChannel, ByteBuffer burst) {
+        burst.flip();
+        try {
+            write(socketChannel, burst);
+        } catch (IOException ex) {
+            System.out.println("Closed by client!");
+            return false;
+        } finally {
+            burst.clear();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *    ChannelReader.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * I/O stage of the Channel tasks: reads the socket, decodes the instances and puts them in the ring.
+ *
+ * <p>Runs on its own thread so the socket keeps being drained while the learning
+ * thread tests and trains. Every instance carries the System.nanoTime() taken
+ * right after the read that brought its last bytes, before parsing. When the
+ * ring is full the reader either waits for room (backpressure, the TCP window
+ * then closes and the producer slows down) or drops the instance.</p>
+ *
+ * <p>The ring is closed when the stream ends (end marker or end of connection), so the
+ * learning thread sees it drained. Closing the ring or the channel from the
+ * learning thread stops the reader.</p>
+ */
+public class ChannelReader implements Runnable {
+
+    protected static final int BUFFER_SIZE = 1048576;
+
+    private final SocketChannel channel;
+
+    private final Instances header;
+
+    private final InstanceRing ring;
+
+    private final boolean dropWhenFull;
+
+    private final InstanceDecoder parser;
+
+    private long bytesRead;
+
+    public ChannelReader(SocketChannel channel, Instances header, InstanceDecoder parser, InstanceRing ring,
+                         boolean dropWhenFull) {
+        this.channel = channel;
+        this.header = header;
+        this.parser = parser;
+        this.ring = ring;
+        this.dropWhenFull = dropWhenFull;
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try {
+            while (!this.parser.isEndOfStream()) {
+                int n = this.channel.read(buffer);
+                // get timestamps
+                long arrival = System.nanoTime();
+                if (n == -1)
+                    break;
+                this.bytesRead += n;
+                buffer.flip();
+                double[] values = new double[this.parser.numAttributes()];
+                while (this.parser.next(buffer, values)) { // parse every complete instance of the buffer
+                    Instance instance = new DenseInstance(1.0, values);
+                    instance.setDataset(this.header);
+                    values = new double[this.parser.numAttributes()];
+                    if (this.dropWhenFull)
+                        this.ring.offer(instance, arrival);
+                    else if (!this.ring.put(instance, arrival))
+                        return; // the learning thread is done
+                }
+                // keep the incomplete instance at the end of the read for the next one
+                buffer.compact();
+            }
+        } catch (ClosedChannelException e) {
+            // closed by the learning thread
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            this.ring.close();
+        }
+    }
+
+    public long getBytesRead() {
+        return this.bytesRead;
+    }
+
+    public long getMalformedFields() {
+        return this.parser.getMalformedFields();
+    }
+}
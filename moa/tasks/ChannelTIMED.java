@@ -20,8 +20,10 @@
 package moa.tasks;
 
 import com.github.javacliparser.FileOption;
+import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.IntOption;
-import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.github.javacliparser.MultiChoiceOption;
+import com.github.javacliparser.StringOption;
 import com.yahoo.labs.samoa.instances.Instance;
 import com.yahoo.labs.samoa.instances.Instances;
 import moa.capabilities.Capability;
@@ -46,10 +48,8 @@ import java.io.*;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
-import java.util.ArrayList;
-import java.util.StringTokenizer;
+import java.nio.channels.UnresolvedAddressException;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -104,43 +104,40 @@ public class ChannelTIMED extends ClassificationMainTask {
     public FileOption dumpFileOption = new FileOption("dumpFile", 'd',
             "File to append intermediate csv results to.", null, "csv", true);
 
+    public StringOption hostOption = new StringOption("host", 'h',
+            "Host of the producer to read the instances from.", "192.168.0.11");
+
+    public IntOption portOption = new IntOption("port", 'p',
+            "Port of the producer to read the instances from.", 9004, 1, 65535);
+
+    public IntOption localProducerRateOption = new IntOption("localProducerRate", 'n',
+            "Replay the file of the stream from an in-process producer at this rate (instances per second) over loopback, instead of connecting to host:port (0 = off).",
+            0, 0, Integer.MAX_VALUE);
+
+    public MultiChoiceOption wireFormatOption = new MultiChoiceOption("wireFormat", 'b',
+            "Format of the instances sent by the producer.",
+            new String[]{"text", "float64", "float32"},
+            new String[]{"ARFF data lines ended by '#', \"$$\" at the end",
+                    "Binary frames with float64 values (the producer chooses the width, the local producer uses this one)",
+                    "Binary frames with float32 values (the producer chooses the width, the local producer uses this one)"},
+            0);
+
+    // width of the values of each wire format, 0 = text
+    private static final int[] WIRE_FORMAT_WIDTHS = {0, Double.BYTES, Float.BYTES};
+
+    public IntOption queueCapacityOption = new IntOption("queueCapacity", 'z',
+            "Maximum number of parsed instances waiting between the socket reader and the learner.",
+            65536, 2, Integer.MAX_VALUE);
+
+    public FlagOption dropWhenFullOption = new FlagOption("dropWhenFull", 'o',
+            "Drop the instances that arrive while the queue is full instead of stopping to read the socket.");
+
     private Instances myinst;
     @Override
     public Class<?> getTaskResultType() {
         return LearningCurve.class;
     }
 
-    protected InstanceExample tokenizeLine(String line) {
-        Instance instance = new DenseInstance(myinst.numAttributes());
-        instance.setDataset(myinst);
-        StringTokenizer token = new StringTokenizer(line, ",");
-        int numAttribute = 0;
-        while (numAttribute < myinst.numAttributes()) {
-            //For each item
-            String t = token.nextToken();
-            double value = 0;
-            try {
-                value = Double.parseDouble(t);
-            } catch (NumberFormatException ex) {
-                boolean isNumeric = myinst.attribute(numAttribute).isNumeric();
-                if ("?".equals(t)) {
-                    value = Double.NaN; //Utils.missingValue();
-                } else if (isNumeric) {
-                    try {
-                        value = Double.valueOf(t).doubleValue();
-                    } catch (NumberFormatException nex) {
-                        System.out.println("linha fdp!!!!\n" + line + "\n" + nex);
-                    }
-                } else {
-                    value = this.myinst.attribute(numAttribute).indexOfValue(t);
-                }
-            }
-            instance.setValue(numAttribute, value);
-            numAttribute++;
-        }
-        return new InstanceExample(instance);
-    }
-
     @Override
     protected Object doMainTask(TaskMonitor monitor, ObjectRepository repository) {
         String learnerString = this.learnerOption.getValueAsCLIString();
@@ -192,101 +189,68 @@ public class ChannelTIMED extends ClassificationMainTask {
         boolean firstDump = true;
         float timeTaken = 0;
 
-        SocketChannel socketChannel = null;
+        SocketChannel socketChannel;
+        InetSocketAddress address = new InetSocketAddress(this.hostOption.getValue(), this.portOption.getValue());
         try {
-            socketChannel = SocketChannel.open();
-            socketChannel.connect(new InetSocketAddress("192.168.0.11", 9004));
+            int localRate = this.localProducerRateOption.getValue();
+            if (localRate > 0) {
+                // replay the stream file from this process, over loopback
+                ChannelProducer producer = new ChannelProducer(((ArffFileStream) stream).arffFileOption.getFile(),
+                        this.myinst, localRate, maxSeconds, WIRE_FORMAT_WIDTHS[this.wireFormatOption.getChosenIndex()]);
+                address = producer.bind();
+                Thread producerThread = new Thread(producer, "channel-producer");
+                producerThread.setDaemon(true);
+                producerThread.start();
+            }
+            // closes the channel if the connection fails
+            socketChannel = SocketChannel.open(address);
             System.out.println("Connected!");
-        } catch (IOException e) {
-            e.printStackTrace();
+        } catch (IOException | UnresolvedAddressException ex) {
+            throw new RuntimeException("Unable to connect to " + address, ex);
         }
 
-        ByteBuffer buffer = ByteBuffer.allocate(1048576);
-        ArrayList<TimeStamp> timestamps = new ArrayList<>();
-        boolean connection_active = true;
-        int count = 0;
-        int finished = 0;
-        String ctlstr = "", a = "";
-        String[] listOfMessages;
-        int correctlength = -1, thislength;
-        boolean brokenMessage = false;
-        String bknmsg = "";
+        InstanceRing ring = new InstanceRing(this.queueCapacityOption.getValue());
+        InstanceDecoder parser = this.wireFormatOption.getChosenIndex() == 0 ? new InstanceParser(this.myinst)
+                : new BinaryInstanceParser(this.myinst);
+        ChannelReader reader = new ChannelReader(socketChannel, this.myinst, parser, ring, this.dropWhenFullOption.isSet());
+        Thread readerThread = new Thread(reader, "channel-reader");
+        readerThread.setDaemon(true);
+        // delay of every instance, from the read that brought it to the end of its training
+        LatencyHistogram latencies = new LatencyHistogram();
         // Clock Time Start
         long t1 = System.currentTimeMillis();
-        while (connection_active) {
-            // read the list of messages from the socket
-            int bytesRead = 0;
-            try {
-                assert socketChannel != null;
-                bytesRead = socketChannel.read(buffer);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            if (bytesRead == -1) {
-//                System.out.println("BYTES READ -1");
+        long end = maxSeconds < 0 ? -1 : System.nanoTime() + maxSeconds * 1000000000L;
+        readerThread.start();
+        while (true) {
+            Instance instance = ring.take(end);
+            secondsElapsed = (System.currentTimeMillis() - t1)/1000F;
+            if (instance == null) // end of the stream or of the time limit
+                break;
+            Example trainInst = new InstanceExample(instance);
+            Example testInst = trainInst;
+            double[] prediction = learner.getVotesForInstance(testInst);
+            evaluator.addResult(testInst, prediction);
+            learner.trainOnInstance(trainInst);
+            latencies.record(System.nanoTime() - ring.lastArrival());
+            instancesProcessed++;
+            secondsElapsed = (System.currentTimeMillis() - t1)/1000F;
+            if (maxSeconds >= 0 && secondsElapsed > maxSeconds) {
+                // end eval
                 break;
-            }
-            ctlstr = "read " + bytesRead + " bytes.";
-            a = new String(buffer.array(), 0, bytesRead).trim();
-            listOfMessages = a.split("#");
-            ctlstr += " # of msgs " + listOfMessages.length;
-//            System.out.println(ctlstr);
-            buffer.clear();
-            // get timestamps
-            long measure = System.currentTimeMillis();
-            for (String s : listOfMessages) {
-                String realInstance = "";
-                if (correctlength == -1) // get correct number of fields
-                    correctlength = s.split(",").length;
-                if (s.contains("$$")) { // if has the termination string, finish it
-                    connection_active = false;
-//                    System.out.println("READ $$ FINISH");
-                    count -= 1;
-                    break;
-                } else if (brokenMessage) { // second case, it is the next message after a broken one
-                    bknmsg += s;
-                    realInstance = bknmsg;
-                    count -= 1;
-                    brokenMessage = false;
-                } else {
-                    String[] split = s.split(",");
-                    thislength = split.length;
-                    if (thislength != correctlength) { // last case, instance is broken
-                        brokenMessage = true;
-                        bknmsg = s;
-                    } else {
-                        String lastVal = split[split.length - 1];
-                        String classAtt = myinst.attribute(myinst.numAttributes()).toString();
-                        if (!classAtt.contains(lastVal)) { // line has all commas but last value is incomplete.
-                            brokenMessage = true;
-                            bknmsg = s;
-                        } else { // last case, normal instance
-                            realInstance = s;
-                        }
-                    }
-                }
-                if (!realInstance.equals("")) { // if has complete Instance, process it
-                    Example trainInst = tokenizeLine(realInstance);
-                    Example testInst = trainInst;
-                    double[] prediction = learner.getVotesForInstance(testInst);
-                    evaluator.addResult(testInst, prediction);
-                    learner.trainOnInstance(trainInst);
-                    timestamps.add(new TimeStamp(measure,System.currentTimeMillis()));
-                    instancesProcessed++;
-                    secondsElapsed = (System.currentTimeMillis() - t1)/1000F;
-                    if (secondsElapsed > maxSeconds) {
-                        // end eval
-                        connection_active = false;
-                        break;
-                    }
-                }
             }
         }
+        // stop the reader, it may be blocked on a full ring or on the socket
+        ring.close();
+        try {
+            socketChannel.close();
+            readerThread.join();
+        } catch (IOException | InterruptedException ex) {
+            ex.printStackTrace();
+        }
 
 //        long t2 = System.currentTimeMillis();
         //Clock Time End
         timeTaken = secondsElapsed; //(t2 - t1) / 1000F;
-        long avgDelay = calculateDelay(timestamps);
         float outputRate = instancesProcessed/timeTaken;
         learningCurve.insertEntry(new LearningEvaluation(
                 new Measurement[]{
@@ -298,10 +262,43 @@ public class ChannelTIMED extends ClassificationMainTask {
                                 , timeTaken),
                         new Measurement(
                                 "Avg Delay (ms)"
-                                , avgDelay),
+                                , latencies.getMean() / 1e6),
+                        new Measurement(
+                                "p50 Delay (ms)"
+                                , latencies.getValueAtPercentile(50.0) / 1e6),
+                        new Measurement(
+                                "p90 Delay (ms)"
+                                , latencies.getValueAtPercentile(90.0) / 1e6),
+                        new Measurement(
+                                "p99 Delay (ms)"
+                                , latencies.getValueAtPercentile(99.0) / 1e6),
+                        new Measurement(
+                                "p99.9 Delay (ms)"
+                                , latencies.getValueAtPercentile(99.9) / 1e6),
+                        new Measurement(
+                                "Max Delay (ms)"
+                                , latencies.getMax() / 1e6),
                         new Measurement(
                                 "outRate (inst/s)"
-                                , outputRate)
+                                , outputRate),
+                        new Measurement(
+                                "Max Queue Depth"
+                                , ring.getMaxDepth()),
+                        new Measurement(
+                                "Avg Queue Depth"
+                                , ring.getAverageDepth()),
+                        new Measurement(
+                                "Backpressure Events"
+                                , ring.getBackpressureEvents()),
+                        new Measurement(
+                                "Reader Stall (ms)"
+                                , ring.getProducerStallMillis()),
+                        new Measurement(
+                                "Dropped Instances"
+                                , ring.getDropped()),
+                        new Measurement(
+                                "Learner Idle (ms)"
+                                , ring.getConsumerIdleMillis())
                 },
                 evaluator, learner));
         if (immediateResultStream != null) {
@@ -315,11 +312,6 @@ public class ChannelTIMED extends ClassificationMainTask {
             immediateResultStream.flush();
         }
 
-        try {
-            socketChannel.close();
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
         if (immediateResultStream != null) {
             immediateResultStream.close();
         }
@@ -343,26 +335,4 @@ public class ChannelTIMED extends ClassificationMainTask {
         else
             return new ImmutableCapabilities(Capability.VIEW_STANDARD);
     }
-
-    protected long calculateDelay(ArrayList<TimeStamp> al) {
-        long sum = 0;
-        for (TimeStamp t : al) {
-            sum += t.getDelay();
-        }
-        return sum/al.size();
-    }
-
-    private class TimeStamp {
-        public long enter;
-        public long finish;
-
-        public TimeStamp(long t1, long t2) {
-            enter = t1;
-            finish = t2;
-        }
-
-        public long getDelay() {
-            return finish - enter;
-        }
-    }
 }
@@ -0,0 +1,190 @@
+/*
+ *    ChunkPrefetcher.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import moa.streams.ExampleStream;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads the chunks of a stream ahead of the learning thread.
+ *
+ * <p>A reader thread fills the next chunks from the stream while the learner
+ * tests and trains on the current one, with at most chunksAhead chunks waiting
+ * in a bounded queue. The time the learning thread spends waiting for a chunk
+ * is accumulated: close to zero when reading keeps up with training. With 0
+ * chunks ahead there is no thread, take() reads the chunk itself (the time
+ * spent reading is then the wait).</p>
+ *
+ * <p>The chunk size can be changed between chunks (adaptive chunk size), the
+ * chunks already read ahead keep their size.</p>
+ */
+public class ChunkPrefetcher {
+
+    private static final class Chunk {
+
+        final Instances instances;
+
+        // System.nanoTime() when its first instance was read
+        final long started;
+
+        // no instance left in the stream after this chunk
+        final boolean last;
+
+        final long estimatedRemainingInstances;
+
+        Chunk(Instances instances, long started, boolean last, long estimatedRemainingInstances) {
+            this.instances = instances;
+            this.started = started;
+            this.last = last;
+            this.estimatedRemainingInstances = estimatedRemainingInstances;
+        }
+    }
+
+    // put by the reader thread when it fails
+    private static final Chunk FAILED = new Chunk(null, 0, true, -1);
+
+    private final ExampleStream stream;
+
+    private final int chunksAhead;
+
+    private final BlockingQueue<Chunk> queue;
+
+    private volatile int chunkSize;
+
+    private volatile boolean closed;
+
+    private volatile Throwable failure;
+
+    private Thread thread;
+
+    private Chunk current;
+
+    private long waitNanos;
+
+    public ChunkPrefetcher(ExampleStream stream, int chunkSize, int chunksAhead) {
+        this.stream = stream;
+        this.chunkSize = chunkSize;
+        this.chunksAhead = chunksAhead;
+        this.queue = chunksAhead > 0 ? new ArrayBlockingQueue<>(chunksAhead) : null;
+    }
+
+    public void start() {
+        if (this.queue == null)
+            return;
+        this.thread = new Thread(() -> {
+            try {
+                boolean last = false;
+                while (!last && !this.closed) {
+                    Chunk chunk = readChunk(this.chunkSize);
+                    last = chunk.last;
+                    this.queue.put(chunk);
+                }
+            } catch (InterruptedException e) {
+                // closed
+            } catch (Throwable t) {
+                this.failure = t;
+                this.queue.clear();
+                this.queue.offer(FAILED);
+            }
+        }, "chunk-prefetcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /***
+     * Reader thread, null when the chunks are read by the calling thread.
+     */
+    public Thread getThread() {
+        return this.thread;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /***
+     * True until the last chunk of the stream has been taken.
+     */
+    public boolean hasMoreChunks() {
+        return this.current == null || !this.current.last;
+    }
+
+    /***
+     * Next chunk, waiting for the reader thread if it is not ready.
+     *
+     * @return the chunk, or null when the stream has no instance left
+     */
+    public Instances take() {
+        long start = System.nanoTime();
+        if (this.queue == null) {
+            this.current = readChunk(this.chunkSize);
+        } else {
+            try {
+                this.current = this.queue.take();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Interrupted while waiting for the next chunk.", e);
+            }
+            if (this.current == FAILED)
+                throw new RuntimeException("Reading the stream failed.", this.failure);
+        }
+        this.waitNanos += System.nanoTime() - start;
+        return this.current.instances.numInstances() == 0 ? null : this.current.instances;
+    }
+
+    /***
+     * System.nanoTime() when the first instance of the last chunk taken was read.
+     */
+    public long chunkStarted() {
+        return this.current.started;
+    }
+
+    public long estimatedRemainingInstances() {
+        return this.current == null ? this.stream.estimatedRemainingInstances() : this.current.estimatedRemainingInstances;
+    }
+
+    /***
+     * Time the learning thread spent waiting for chunks.
+     */
+    public double getWaitMillis() {
+        return this.waitNanos / 1e6;
+    }
+
+    /***
+     * Stops the reader thread, the chunks read ahead are dropped.
+     */
+    public void close() {
+        this.closed = true;
+        if (this.thread != null) {
+            this.thread.interrupt();
+            this.queue.clear();
+        }
+    }
+
+    private Chunk readChunk(int size) {
+        long started = System.nanoTime();
+        Instances chunkInstances = new Instances(this.stream.getHeader(), size);
+        while (this.stream.hasMoreInstances() && chunkInstances.numInstances() < size)
+            chunkInstances.add((Instance) this.stream.nextInstance().getData());
+        return new Chunk(chunkInstances, started, !this.stream.hasMoreInstances(),
+                this.stream.estimatedRemainingInstances());
+    }
+}
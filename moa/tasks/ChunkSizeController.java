@@ -0,0 +1,210 @@
+/*
+ *    ChunkSizeController.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Chooses the size of the next chunk from the measurements of the last ones.
+ *
+ * <p>After every chunk the task reports how long the training took and the delay
+ * of the chunk (from its first instance being read to the end of its training).
+ * The process CPU time spent during the training, less the one of the threads
+ * that do not train (e.g. the chunk prefetcher), gives the fraction of the
+ * learner's training threads that sat idle: with -c 4 on 8 CPUs, 4 busy threads
+ * are saturated. The chunk grows while the cores are idle and the predicted delay
+ * of the bigger chunk fits in the latency budget, and shrinks by half as soon as a
+ * chunk goes over the budget. When the cores are saturated and the delay gets close
+ * to the budget it shrinks slowly, bigger chunks would only add delay.</p>
+ *
+ * <p>The measurements are smoothed with an exponential moving average so a single
+ * slow chunk (GC, drift reset) does not make the size oscillate.</p>
+ */
+public class ChunkSizeController {
+
+    // weight of the last chunk in the moving averages
+    protected static final double SMOOTHING = 0.3;
+
+    // grow while more than this fraction of the cores is idle during training
+    protected static final double IDLE_TARGET = 0.25;
+
+    // below this idle fraction the cores are considered saturated
+    protected static final double IDLE_SATURATED = 0.10;
+
+    protected static final double GROWTH = 1.5;
+
+    private final int minChunkSize;
+
+    private final int maxChunkSize;
+
+    // -1 = no limit
+    private final long latencyBudgetNanos;
+
+    // threads the learner trains on, at most the processors available
+    private final int cores;
+
+    private final OperatingSystemMXBean os;
+
+    private final ThreadMXBean threads;
+
+    // threads running during the training whose CPU time is not the learner's, and their last CPU time
+    private final List<Thread> excluded = new ArrayList<>();
+
+    private long[] excludedCpu = new long[0];
+
+    private int chunkSize;
+
+    private double idleFraction = -1.0;
+
+    private double delayPerInstance = -1.0;
+
+    private long trainStart;
+
+    private long cpuStart;
+
+    private long excludedCpuStart;
+
+    private long chunks;
+
+    private long instances;
+
+    private long resizes;
+
+    /***
+     * Controller for a learner training on trainingThreads threads (see moa.classifiers.TrainingThreads).
+     */
+    public ChunkSizeController(int initialChunkSize, int minChunkSize, int maxChunkSize, long latencyBudgetMillis,
+                               int trainingThreads) {
+        this.minChunkSize = Math.max(1, minChunkSize);
+        this.maxChunkSize = Math.max(this.minChunkSize, maxChunkSize);
+        this.latencyBudgetNanos = latencyBudgetMillis < 0 ? -1 : latencyBudgetMillis * 1000000L;
+        this.cores = Math.max(1, Math.min(trainingThreads, Runtime.getRuntime().availableProcessors()));
+        this.os = ManagementFactory.getOperatingSystemMXBean();
+        this.threads = ManagementFactory.getThreadMXBean();
+        this.chunkSize = Math.min(this.maxChunkSize, Math.max(this.minChunkSize, initialChunkSize));
+    }
+
+    public int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    /***
+     * Leaves the CPU time of thread out of the training measurements, for a thread that keeps running
+     * while the learner trains.
+     */
+    public void exclude(Thread thread) {
+        if (thread == null)
+            return;
+        this.excluded.add(thread);
+        this.excludedCpu = Arrays.copyOf(this.excludedCpu, this.excluded.size());
+    }
+
+    /***
+     * Called right before trainOnInstances().
+     */
+    public void trainingStarted() {
+        this.cpuStart = processCpuTime();
+        this.excludedCpuStart = excludedCpuTime();
+        this.trainStart = System.nanoTime();
+    }
+
+    /***
+     * Called right after trainOnInstances(), with the delay of the chunk in nanoseconds.
+     *
+     * @return the size of the next chunk
+     */
+    public int trainingEnded(int numInstances, long delayNanos) {
+        long trainNanos = System.nanoTime() - this.trainStart;
+        long cpuEnd = processCpuTime();
+        long otherCpu = excludedCpuTime() - this.excludedCpuStart;
+        this.chunks++;
+        this.instances += numInstances;
+        if (numInstances == 0)
+            return this.chunkSize;
+
+        if (this.cpuStart >= 0 && cpuEnd >= 0 && trainNanos > 0) {
+            double busy = (double) (cpuEnd - this.cpuStart - otherCpu) / ((double) trainNanos * this.cores);
+            double idle = Math.max(0.0, Math.min(1.0, 1.0 - busy));
+            this.idleFraction = this.idleFraction < 0 ? idle : SMOOTHING * idle + (1 - SMOOTHING) * this.idleFraction;
+        }
+        double perInstance = (double) delayNanos / numInstances;
+        this.delayPerInstance = this.delayPerInstance < 0 ? perInstance
+                : SMOOTHING * perInstance + (1 - SMOOTHING) * this.delayPerInstance;
+
+        int next = this.chunkSize;
+        if (this.latencyBudgetNanos >= 0 && delayNanos > this.latencyBudgetNanos) {
+            next = this.chunkSize / 2;
+        } else if (this.idleFraction < 0 || this.idleFraction > IDLE_TARGET) {
+            int grown = (int) Math.min(Integer.MAX_VALUE, Math.ceil(this.chunkSize * GROWTH));
+            if (fitsBudget(grown))
+                next = grown;
+        } else if (this.idleFraction < IDLE_SATURATED && this.latencyBudgetNanos >= 0
+                && this.delayPerInstance * this.chunkSize > this.latencyBudgetNanos / 2.0) {
+            next = this.chunkSize - this.chunkSize / 4;
+        }
+        next = Math.min(this.maxChunkSize, Math.max(this.minChunkSize, next));
+        if (next != this.chunkSize)
+            this.resizes++;
+        this.chunkSize = next;
+        return next;
+    }
+
+    public double getIdleFraction() {
+        return Math.max(0.0, this.idleFraction);
+    }
+
+    public double getMeanChunkSize() {
+        return this.chunks == 0 ? this.chunkSize : (double) this.instances / this.chunks;
+    }
+
+    public long getResizes() {
+        return this.resizes;
+    }
+
+    private boolean fitsBudget(int size) {
+        return this.latencyBudgetNanos < 0 || this.delayPerInstance * size <= this.latencyBudgetNanos;
+    }
+
+    /***
+     * CPU time of the excluded threads, 0 when the JVM does not measure it.
+     */
+    private long excludedCpuTime() {
+        long total = 0;
+        if (this.excluded.isEmpty() || !this.threads.isThreadCpuTimeSupported())
+            return total;
+        for (int i = 0; i < this.excluded.size(); i++) {
+            // -1 once the thread has ended, it keeps the time it had
+            long time = this.threads.getThreadCpuTime(this.excluded.get(i).getId());
+            if (time >= 0)
+                this.excludedCpu[i] = time;
+            total += this.excludedCpu[i];
+        }
+        return total;
+    }
+
+    private long processCpuTime() {
+        if (this.os instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) this.os).getProcessCpuTime();
+        return -1;
+    }
+}
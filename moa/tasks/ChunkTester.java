@@ -0,0 +1,49 @@
+/*
+ *    ChunkTester.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import com.yahoo.labs.samoa.instances.Instances;
+import moa.classifiers.BatchPredictor;
+import moa.core.Example;
+import moa.core.InstanceExample;
+import moa.evaluation.LearningPerformanceEvaluator;
+import moa.learners.Learner;
+
+/**
+ * Test step of the chunk based evaluation tasks, shared by EvaluateInterleavedTestThenTrainChunks,
+ * EITTTChunksTIMED and ChannelChunksTIMED.
+ */
+public class ChunkTester {
+
+    /***
+     * Tests the learner on every instance of the chunk, with a single call when it predicts whole chunks.
+     */
+    public static void testChunk(Learner learner, Instances chunkInstances, LearningPerformanceEvaluator evaluator) {
+        if (learner instanceof BatchPredictor) {
+            double[][] predictions = ((BatchPredictor) learner).getVotesForInstances(chunkInstances);
+            for (int i = 0; i < chunkInstances.numInstances(); i++)
+                evaluator.addResult(new InstanceExample(chunkInstances.instance(i)), predictions[i]);
+        } else {
+            for (int i = 0; i < chunkInstances.numInstances(); i++) {
+                Example testInst = new InstanceExample(chunkInstances.instance(i));
+                double[] prediction = learner.getVotesForInstance(testInst);
+                evaluator.addResult(testInst, prediction);
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ *    ConvertArffToColumnar.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import com.github.javacliparser.FileOption;
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import moa.core.ObjectRepository;
+import moa.options.ClassOption;
+import moa.streams.ArffFileStream;
+import moa.streams.ColumnarFileStream;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Task converting an ARFF file to the columnar file read by ColumnarFileStream, then checking both give the same instances.
+ *
+ * <p>The check reads the two streams side by side and compares the weight and
+ * the bits of every value of every instance (all NaNs compare equal), it stops
+ * at the first difference.</p>
+ */
+public class ConvertArffToColumnar extends MainTask {
+
+    @Override
+    public String getPurposeString() {
+        return "Converts an ARFF file to a memory mapped columnar file for ColumnarFileStream.";
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    public ClassOption streamOption = new ClassOption("stream", 's',
+            "ARFF stream to convert.", ArffFileStream.class, "ArffFileStream");
+
+    public FileOption columnarFileOption = new FileOption("columnarFile", 'f',
+            "Destination columnar file.", null, "moac", true);
+
+    @Override
+    public Class<?> getTaskResultType() {
+        return File.class;
+    }
+
+    @Override
+    protected Object doMainTask(TaskMonitor monitor, ObjectRepository repository) {
+        ArffFileStream stream = (ArffFileStream) getPreparedClassOption(this.streamOption);
+        File destFile = this.columnarFileOption.getFile();
+        if (destFile == null)
+            throw new RuntimeException("No destination file specified.");
+        monitor.setCurrentActivity("Converting stream to columnar file...", -1.0);
+        long numInstances = write(stream, destFile, monitor);
+        if (monitor.taskShouldAbort())
+            return null;
+        monitor.setCurrentActivity("Checking columnar file against the stream...", -1.0);
+        stream.restart();
+        check(stream, new ColumnarFileStream(destFile.getPath()), numInstances, monitor);
+        return destFile;
+    }
+
+    /***
+     * Writes the columnar file, each column going first to its own temporary file.
+     *
+     * @return the number of instances written
+     */
+    protected long write(ArffFileStream stream, File destFile, TaskMonitor monitor) {
+        InstancesHeader header = stream.getHeader();
+        int numAttributes = header.numAttributes();
+        byte[] widths = new byte[numAttributes];
+        for (int a = 0; a < numAttributes; a++) {
+            Attribute attribute = header.attribute(a);
+            if (attribute.isNominal() && attribute.numValues() <= Byte.MAX_VALUE)
+                widths[a] = ColumnarFileStream.WIDTH_BYTE;
+            else if (attribute.isNominal() && attribute.numValues() <= Short.MAX_VALUE)
+                widths[a] = ColumnarFileStream.WIDTH_SHORT;
+            else
+                widths[a] = ColumnarFileStream.WIDTH_DOUBLE;
+        }
+        File[] columnFiles = new File[numAttributes + 1];
+        DataOutputStream[] columns = new DataOutputStream[numAttributes + 1];
+        long numInstances = 0;
+        boolean hasWeights = false;
+        try {
+            for (int a = 0; a <= numAttributes; a++) {
+                columnFiles[a] = File.createTempFile("column" + a + "-", ".tmp", destFile.getAbsoluteFile().getParentFile());
+                columnFiles[a].deleteOnExit();
+                columns[a] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(columnFiles[a]), 65536));
+            }
+            while (stream.hasMoreInstances()) {
+                Instance instance = stream.nextInstance().getData();
+                for (int a = 0; a < numAttributes; a++) {
+                    double v = instance.value(a);
+                    switch (widths[a]) {
+                        case ColumnarFileStream.WIDTH_BYTE:
+                            columns[a].writeByte(Double.isNaN(v) ? -1 : (int) v);
+                            break;
+                        case ColumnarFileStream.WIDTH_SHORT:
+                            columns[a].writeShort(Double.isNaN(v) ? -1 : (int) v);
+                            break;
+                        default:
+                            columns[a].writeDouble(v);
+                    }
+                }
+                columns[numAttributes].writeDouble(instance.weight());
+                hasWeights |= instance.weight() != 1.0;
+                numInstances++;
+                if (numInstances % INSTANCES_BETWEEN_MONITOR_UPDATES == 0) {
+                    if (monitor.taskShouldAbort())
+                        return numInstances;
+                    monitor.setCurrentActivityDescription("Converted " + numInstances + " instances");
+                }
+            }
+            for (DataOutputStream column : columns)
+                column.close();
+            byte[] text = headerText(stream.arffFileOption.getFile());
+            try (FileChannel out = FileChannel.open(destFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer fixed = ByteBuffer.allocate(Integer.BYTES * 5 + Long.BYTES + text.length + numAttributes + 1);
+                fixed.putInt(ColumnarFileStream.MAGIC).putInt(ColumnarFileStream.VERSION)
+                        .putInt(header.classIndex()).putInt(numAttributes).putLong(numInstances)
+                        .putInt(text.length).put(text).put(widths).put((byte) (hasWeights ? 1 : 0));
+                fixed.flip();
+                while (fixed.hasRemaining())
+                    out.write(fixed);
+                int last = hasWeights ? numAttributes : numAttributes - 1;
+                for (int a = 0; a <= last; a++) {
+                    long position = ColumnarFileStream.align(out.position());
+                    out.position(position);
+                    try (FileChannel in = FileChannel.open(columnFiles[a].toPath(), StandardOpenOption.READ)) {
+                        long size = in.size();
+                        long copied = 0;
+                        while (copied < size)
+                            copied += in.transferTo(copied, size - copied, out);
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("Failed writing to file " + destFile, ioe);
+        } finally {
+            for (int a = 0; a <= numAttributes; a++) {
+                try {
+                    if (columns[a] != null)
+                        columns[a].close();
+                } catch (IOException ioe) {
+                    // already failed or closed
+                }
+                if (columnFiles[a] != null)
+                    columnFiles[a].delete();
+            }
+        }
+        return numInstances;
+    }
+
+    /***
+     * Compares the instance sequences of the ARFF and columnar streams.
+     */
+    protected void check(ArffFileStream arff, ColumnarFileStream columnar, long numInstances, TaskMonitor monitor) {
+        if (arff.getHeader().numAttributes() != columnar.getHeader().numAttributes()
+                || arff.getHeader().classIndex() != columnar.getHeader().classIndex())
+            throw new RuntimeException("Header of the columnar file differs from the ARFF file.");
+        long n = 0;
+        while (arff.hasMoreInstances()) {
+            if (!columnar.hasMoreInstances())
+                throw new RuntimeException("Columnar file ends at instance " + n + ", the ARFF file has more.");
+            Instance expected = arff.nextInstance().getData();
+            Instance actual = columnar.nextInstance().getData();
+            if (Double.doubleToLongBits(expected.weight()) != Double.doubleToLongBits(actual.weight()))
+                throw new RuntimeException("Weight of instance " + n + " differs: " + expected.weight() + " != " + actual.weight());
+            for (int a = 0; a < expected.numAttributes(); a++) {
+                if (Double.doubleToLongBits(expected.value(a)) != Double.doubleToLongBits(actual.value(a)))
+                    throw new RuntimeException("Attribute " + a + " of instance " + n + " differs: "
+                            + expected.value(a) + " != " + actual.value(a));
+            }
+            n++;
+            if (n % INSTANCES_BETWEEN_MONITOR_UPDATES == 0) {
+                if (monitor.taskShouldAbort())
+                    return;
+                monitor.setCurrentActivityDescription("Checked " + n + " instances");
+            }
+        }
+        if (columnar.hasMoreInstances() || n != numInstances)
+            throw new RuntimeException("Columnar file has more instances than the ARFF file.");
+        System.out.println("Columnar file matches the ARFF file: " + n + " instances.");
+    }
+
+    /***
+     * Lines of the ARFF file up to @data, included.
+     */
+    private static byte[] headerText(File arffFile) throws IOException {
+        StringBuilder text = new StringBuilder();
+        try (BufferedReader reader = Files.newBufferedReader(arffFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                text.append(line).append('\n');
+                if (line.trim().toLowerCase().startsWith("@data"))
+                    break;
+            }
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void getDescription(StringBuilder sb, int indent) {
+        // TODO Auto-generated method stub
+    }
+}
@@ -20,6 +20,7 @@
 package moa.tasks;
 
 import com.github.javacliparser.FileOption;
+import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.IntOption;
 import com.yahoo.labs.samoa.instances.Attribute;
 import com.yahoo.labs.samoa.instances.Instance;
@@ -28,6 +29,7 @@ import moa.capabilities.Capability;
 import moa.capabilities.ImmutableCapabilities;
 import moa.classifiers.MultiClassClassifier;
 import moa.classifiers.Multithreading;
+import moa.classifiers.TrainingThreads;
 import moa.classifiers.meta.AdaptiveRandomForest;
 import moa.core.*;
 import moa.evaluation.LearningEvaluation;
@@ -98,6 +100,19 @@ public class EITTTChunksTIMED extends ClassificationMainTask {
     public FileOption dumpFileOption = new FileOption("dumpFile", 'd',
             "File to append intermediate csv results to.", null, "csv", true);
 
+    public FlagOption adaptiveChunkSizeOption = new FlagOption("adaptiveChunkSize", 'a',
+            "Adapts the size of the chunks, starting from chunkSize, to keep the cores busy within the latency budget.");
+
+    public IntOption minChunkSizeOption = new IntOption("minChunkSize", 'm',
+            "Smallest chunk size chosen by the adaptive chunk size.", 50, 1, Integer.MAX_VALUE);
+
+    public IntOption maxChunkSizeOption = new IntOption("maxChunkSize", 'x',
+            "Largest chunk size chosen by the adaptive chunk size.", 2000, 1, Integer.MAX_VALUE);
+
+    public IntOption latencyBudgetOption = new IntOption("latencyBudget", 'b',
+            "Maximum delay in milliseconds of a chunk, from its first instance to the end of its training, for the adaptive chunk size (-1 = no limit).",
+            1000, -1, Integer.MAX_VALUE);
+
     @Override
     public Class<?> getTaskResultType() {
         return LearningCurve.class;
@@ -159,10 +174,21 @@ public class EITTTChunksTIMED extends ClassificationMainTask {
         long t1 = System.currentTimeMillis();
         boolean firstChunk = true;
 
+        ChunkSizeController chunkSizeController = null;
+        if (this.adaptiveChunkSizeOption.isSet()) {
+            // the learner's threads are the cores it can keep busy
+            int trainingThreads = learner instanceof TrainingThreads ? ((TrainingThreads) learner).getTrainingThreads() : 1;
+            chunkSizeController = new ChunkSizeController(chunkSize, this.minChunkSizeOption.getValue(),
+                    this.maxChunkSizeOption.getValue(), this.latencyBudgetOption.getValue(), trainingThreads);
+            chunkSize = chunkSizeController.getChunkSize();
+        }
+        int lastChunkSize = 0;
+
         while (stream.hasMoreInstances()
                 && ((maxInstances < 0) || (instancesProcessed < maxInstances))
                 && ((maxSeconds < 0) || (secondsElapsed < maxSeconds))) {
 
+            long chunkStart = System.nanoTime();
             Instances chunkInstances = new Instances(stream.getHeader(), chunkSize);
 //            Attribute classatt = chunkInstances.attribute(chunkInstances.numAttributes());
 ////            System.out.println(classatt.indexOfValue("2134576i") + "  -  " + classatt.numValues() +
@@ -197,19 +223,22 @@ public class EITTTChunksTIMED extends ClassificationMainTask {
             ////Testing
             if(!firstChunk) {
 //                System.out.println("testing");
-                for (int i=0; i< chunkInstances.numInstances(); i++) {
-                    Example testInst = new InstanceExample((Instance) chunkInstances.instance(i));
-                    double[] prediction = learner.getVotesForInstance(testInst);
-                    evaluator.addResult(testInst, prediction);
-                }
+                ChunkTester.testChunk(learner, chunkInstances, evaluator);
             } else {
                 firstChunk = false;
             }
 
             ////Training
+            if (chunkSizeController != null)
+                chunkSizeController.trainingStarted();
             learner.trainOnInstances(chunkInstances);
+            lastChunkSize = chunkInstances.numInstances();
+            if (chunkSizeController != null)
+                chunkSize = chunkSizeController.trainingEnded(lastChunkSize, System.nanoTime() - chunkStart);
+            long previouslyProcessed = instancesProcessed;
             instancesProcessed += chunkInstances.numInstances();
-            if (instancesProcessed % INSTANCES_BETWEEN_MONITOR_UPDATES == 0) {
+            if (instancesProcessed / INSTANCES_BETWEEN_MONITOR_UPDATES
+                    != previouslyProcessed / INSTANCES_BETWEEN_MONITOR_UPDATES) {
                 if (monitor.taskShouldAbort()) {
                     return null;
                 }
@@ -241,7 +270,13 @@ public class EITTTChunksTIMED extends ClassificationMainTask {
                                 instancesProcessed),
                         new Measurement(
                                 "Wall Time (Actual Time)"
-                                , timeTaken)
+                                , timeTaken),
+                        new Measurement(
+                                "chunk size"
+                                , lastChunkSize),
+                        new Measurement(
+                                "mean chunk size"
+                                , chunkSizeController != null ? chunkSizeController.getMeanChunkSize() : chunkSize)
                 },
                 evaluator, learner));
         if (immediateResultStream != null) {
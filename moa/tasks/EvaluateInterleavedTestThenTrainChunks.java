@@ -20,13 +20,14 @@
 package moa.tasks;
 
 import com.github.javacliparser.FileOption;
+import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.IntOption;
-import com.yahoo.labs.samoa.instances.Instance;
 import com.yahoo.labs.samoa.instances.Instances;
 import moa.capabilities.Capability;
 import moa.capabilities.ImmutableCapabilities;
 import moa.classifiers.MultiClassClassifier;
 import moa.classifiers.Multithreading;
+import moa.classifiers.TrainingThreads;
 import moa.classifiers.meta.AdaptiveRandomForest;
 import moa.core.*;
 import moa.evaluation.LearningEvaluation;
@@ -97,6 +98,23 @@ public class EvaluateInterleavedTestThenTrainChunks extends ClassificationMainTa
     public FileOption dumpFileOption = new FileOption("dumpFile", 'd',
             "File to append intermediate csv results to.", null, "csv", true);
 
+    public FlagOption adaptiveChunkSizeOption = new FlagOption("adaptiveChunkSize", 'a',
+            "Adapts the size of the chunks, starting from chunkSize, to keep the cores busy within the latency budget.");
+
+    public IntOption minChunkSizeOption = new IntOption("minChunkSize", 'm',
+            "Smallest chunk size chosen by the adaptive chunk size.", 50, 1, Integer.MAX_VALUE);
+
+    public IntOption maxChunkSizeOption = new IntOption("maxChunkSize", 'x',
+            "Largest chunk size chosen by the adaptive chunk size.", 2000, 1, Integer.MAX_VALUE);
+
+    public IntOption latencyBudgetOption = new IntOption("latencyBudget", 'b',
+            "Maximum delay in milliseconds of a chunk, from its first instance to the end of its training, for the adaptive chunk size (-1 = no limit).",
+            1000, -1, Integer.MAX_VALUE);
+
+    public IntOption prefetchChunksOption = new IntOption("prefetchChunks", 'p',
+            "Number of chunks read from the stream by a separate thread ahead of training (0 = read by the learning thread).",
+            0, 0, Integer.MAX_VALUE);
+
     @Override
     public Class<?> getTaskResultType() {
         return LearningCurve.class;
@@ -162,95 +180,112 @@ public class EvaluateInterleavedTestThenTrainChunks extends ClassificationMainTa
 
         boolean firstChunk = true;
 
-        while (stream.hasMoreInstances()
-                && ((maxInstances < 0) || (instancesProcessed < maxInstances))
-                && ((maxSeconds < 0) || (secondsElapsed < maxSeconds))) {
-
-            Instances chunkInstances = new Instances(stream.getHeader(), chunkSize);
+        ChunkSizeController chunkSizeController = null;
+        if (this.adaptiveChunkSizeOption.isSet()) {
+            // the learner's threads are the cores it can keep busy
+            int trainingThreads = learner instanceof TrainingThreads ? ((TrainingThreads) learner).getTrainingThreads() : 1;
+            chunkSizeController = new ChunkSizeController(chunkSize, this.minChunkSizeOption.getValue(),
+                    this.maxChunkSizeOption.getValue(), this.latencyBudgetOption.getValue(), trainingThreads);
+            chunkSize = chunkSizeController.getChunkSize();
+        }
+        int lastChunkSize = 0;
+
+        // with -p the next chunks are read while the current one is tested and trained
+        ChunkPrefetcher prefetcher = new ChunkPrefetcher(stream, chunkSize, this.prefetchChunksOption.getValue());
+        try {
+            prefetcher.start();
+            if (chunkSizeController != null)
+                chunkSizeController.exclude(prefetcher.getThread());
+            while (prefetcher.hasMoreChunks()
+                    && ((maxInstances < 0) || (instancesProcessed < maxInstances))
+                    && ((maxSeconds < 0) || (secondsElapsed < maxSeconds))) {
+
+                Instances chunkInstances = prefetcher.take();
+                if (chunkInstances == null)
+                    break;
+                long chunkStart = prefetcher.chunkStarted();
+                ////Testing
+                if(!firstChunk) {
+    //                System.out.println("testing");
+                    ChunkTester.testChunk(learner, chunkInstances, evaluator);
+                } else {
+                    firstChunk = false;
+                }
 
-            while (stream.hasMoreInstances() && chunkInstances.numInstances() < chunkSize) {
-                chunkInstances.add((Instance) stream.nextInstance().getData());
-                if (chunkInstances.numInstances()
-                        % INSTANCES_BETWEEN_MONITOR_UPDATES == 0) {
+                ////Training
+                if (chunkSizeController != null)
+                    chunkSizeController.trainingStarted();
+                learner.trainOnInstances(chunkInstances);
+                lastChunkSize = chunkInstances.numInstances();
+                if (chunkSizeController != null) {
+                    chunkSize = chunkSizeController.trainingEnded(lastChunkSize, System.nanoTime() - chunkStart);
+                    prefetcher.setChunkSize(chunkSize);
+                }
+                long previouslyProcessed = instancesProcessed;
+                instancesProcessed += chunkInstances.numInstances();
+
+
+                if (instancesProcessed / this.sampleFrequencyOption.getValue()
+                        != previouslyProcessed / this.sampleFrequencyOption.getValue()
+                        || !prefetcher.hasMoreChunks()) {
+                    long t2 = System.currentTimeMillis();
+                    //Clock Time End
+                    timeTaken = (t2 - t1) / 1000F;
+                    learningCurve.insertEntry(new LearningEvaluation(
+                            new Measurement[]{
+                                    new Measurement(
+                                            "learning evaluation instances",
+                                            instancesProcessed),
+                                    new Measurement(
+                                            "Wall Time (Actual Time)"
+                                            , timeTaken),
+                                    new Measurement(
+                                            "outRate (inst/s)"
+                                            , timeTaken > 0 ? instancesProcessed / timeTaken : 0.0),
+                                    new Measurement(
+                                            "chunk size"
+                                            , lastChunkSize),
+                                    new Measurement(
+                                            "prefetch wait (ms)"
+                                            , prefetcher.getWaitMillis())
+                            },
+                            evaluator, learner));
+                    if (immediateResultStream != null) {
+                        if (firstDump) {
+                            immediateResultStream.print("Learner,stream,randomSeed,");
+                            immediateResultStream.println(learningCurve.headerToString());
+                            firstDump = false;
+                        }
+                        immediateResultStream.print(learnerString + "," + streamString + "," + this.randomSeedOption.getValueAsCLIString() + ",");
+                        immediateResultStream.println(learningCurve.entryToString(learningCurve.numEntries() - 1));
+                        immediateResultStream.flush();
+                    }
+                }
+                if (instancesProcessed / INSTANCES_BETWEEN_MONITOR_UPDATES
+                        != previouslyProcessed / INSTANCES_BETWEEN_MONITOR_UPDATES) {
                     if (monitor.taskShouldAbort()) {
                         return null;
                     }
-
-                    long estimatedRemainingInstances = stream.estimatedRemainingInstances();
-
+                    long estimatedRemainingInstances = prefetcher.estimatedRemainingInstances();
                     if (maxInstances > 0) {
                         long maxRemaining = maxInstances - instancesProcessed;
-                        if ((estimatedRemainingInstances < 0) || (maxRemaining < estimatedRemainingInstances)) {
+                        if ((estimatedRemainingInstances < 0)
+                                || (maxRemaining < estimatedRemainingInstances)) {
                             estimatedRemainingInstances = maxRemaining;
                         }
                     }
-                    monitor.setCurrentActivityFractionComplete((double) instancesProcessed/ (double) (instancesProcessed + estimatedRemainingInstances));
-                }
-            }
-            ////Testing
-            if(!firstChunk) {
-//                System.out.println("testing");
-                for (int i=0; i< chunkInstances.numInstances(); i++) {
-                    Example testInst = new InstanceExample((Instance) chunkInstances.instance(i));
-                    double[] prediction = learner.getVotesForInstance(testInst);
-                    evaluator.addResult(testInst, prediction);
-                }
-            } else {
-                firstChunk = false;
-            }
-
-            ////Training
-            learner.trainOnInstances(chunkInstances);
-            instancesProcessed += chunkInstances.numInstances();
-
-
-            if (instancesProcessed % this.sampleFrequencyOption.getValue() == 0
-                    || !stream.hasMoreInstances()) {
-                long t2 = System.currentTimeMillis();
-                //Clock Time End
-                timeTaken = (t2 - t1) / 1000F;
-                learningCurve.insertEntry(new LearningEvaluation(
-                        new Measurement[]{
-                                new Measurement(
-                                        "learning evaluation instances",
-                                        instancesProcessed),
-                                new Measurement(
-                                        "Wall Time (Actual Time)"
-                                        , timeTaken)
-                        },
-                        evaluator, learner));
-                if (immediateResultStream != null) {
-                    if (firstDump) {
-                        immediateResultStream.print("Learner,stream,randomSeed,");
-                        immediateResultStream.println(learningCurve.headerToString());
-                        firstDump = false;
-                    }
-                    immediateResultStream.print(learnerString + "," + streamString + "," + this.randomSeedOption.getValueAsCLIString() + ",");
-                    immediateResultStream.println(learningCurve.entryToString(learningCurve.numEntries() - 1));
-                    immediateResultStream.flush();
-                }
-            }
-            if (instancesProcessed % INSTANCES_BETWEEN_MONITOR_UPDATES == 0) {
-                if (monitor.taskShouldAbort()) {
-                    return null;
-                }
-                long estimatedRemainingInstances = stream.estimatedRemainingInstances();
-                if (maxInstances > 0) {
-                    long maxRemaining = maxInstances - instancesProcessed;
-                    if ((estimatedRemainingInstances < 0)
-                            || (maxRemaining < estimatedRemainingInstances)) {
-                        estimatedRemainingInstances = maxRemaining;
+                    monitor.setCurrentActivityFractionComplete(estimatedRemainingInstances < 0 ? -1.0
+                            : (double) instancesProcessed
+                            / (double) (instancesProcessed + estimatedRemainingInstances));
+                    if (monitor.resultPreviewRequested()) {
+                        monitor.setLatestResultPreview(learningCurve.copy());
                     }
+                    secondsElapsed = (int) TimingUtils.nanoTimeToSeconds(TimingUtils.getNanoCPUTimeOfCurrentThread()
+                            - evaluateStartTime);
                 }
-                monitor.setCurrentActivityFractionComplete(estimatedRemainingInstances < 0 ? -1.0
-                        : (double) instancesProcessed
-                        / (double) (instancesProcessed + estimatedRemainingInstances));
-                if (monitor.resultPreviewRequested()) {
-                    monitor.setLatestResultPreview(learningCurve.copy());
-                }
-                secondsElapsed = (int) TimingUtils.nanoTimeToSeconds(TimingUtils.getNanoCPUTimeOfCurrentThread()
-                        - evaluateStartTime);
             }
+        } finally {
+            prefetcher.close();
         }
         if (immediateResultStream != null) {
             immediateResultStream.close();
@@ -0,0 +1,49 @@
+/*
+ *    InstanceDecoder.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decoder of one of the wire formats of the Channel tasks, reading the instances from the bytes of the read buffer.
+ *
+ * @see InstanceParser
+ * @see BinaryInstanceParser
+ */
+public interface InstanceDecoder {
+
+    int numAttributes();
+
+    /***
+     * Decodes the next complete instance of buffer, between its position and its limit, into values.
+     *
+     * @return true if an instance was decoded; false when the buffer only holds an incomplete one
+     * (the position is left at its start) or the end of the stream
+     */
+    boolean next(ByteBuffer buffer, double[] values);
+
+    /***
+     * True once the end of the stream has been read.
+     */
+    boolean isEndOfStream();
+
+    /***
+     * Values that could not be decoded and were set as missing.
+     */
+    long getMalformedFields();
+}
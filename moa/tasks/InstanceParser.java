@@ -0,0 +1,289 @@
+/*
+ *    InstanceParser.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.Instances;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parser of the socket protocol of the Channel tasks, working on the bytes of the read buffer.
+ *
+ * <p>The producer sends every instance as its ARFF data line followed by '#', and
+ * "$$" once the stream is over. {@link #next(ByteBuffer, double[])} scans the
+ * buffer for the next '#' and parses the fields between the ',' delimiters
+ * straight into the values array of the instance: numbers are read from their
+ * digits and nominal values are matched against the bytes of the labels, no
+ * String is created. A record split between two reads is left in the buffer,
+ * the caller compacts it and the next read appends the rest.</p>
+ *
+ * <p>Typical use, with buffer in write mode:</p>
+ * <pre>
+ * channel.read(buffer);
+ * buffer.flip();
+ * while (parser.next(buffer, values = new double[parser.numAttributes()]))
+ *     ...
+ * buffer.compact();
+ * </pre>
+ */
+public class InstanceParser implements InstanceDecoder {
+
+    protected static final byte RECORD_DELIMITER = '#';
+
+    protected static final byte FIELD_DELIMITER = ',';
+
+    protected static final byte END_MARKER = '$';
+
+    // powers of ten that are exact in a double
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final int numAttributes;
+
+    // labels of the nominal attributes, null for the numeric ones
+    private final byte[][][] labels;
+
+    private boolean endOfStream;
+
+    private long malformedFields;
+
+    public InstanceParser(Instances header) {
+        this.numAttributes = header.numAttributes();
+        this.labels = new byte[this.numAttributes][][];
+        for (int a = 0; a < this.numAttributes; a++) {
+            Attribute attribute = header.attribute(a);
+            if (attribute.isNominal()) {
+                this.labels[a] = new byte[attribute.numValues()][];
+                for (int v = 0; v < attribute.numValues(); v++)
+                    this.labels[a][v] = attribute.value(v).getBytes(StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    @Override
+    public int numAttributes() {
+        return this.numAttributes;
+    }
+
+    /***
+     * True once the end marker ("$$") has been read.
+     */
+    @Override
+    public boolean isEndOfStream() {
+        return this.endOfStream;
+    }
+
+    /***
+     * Fields that could not be parsed and were set as missing.
+     */
+    @Override
+    public long getMalformedFields() {
+        return this.malformedFields;
+    }
+
+    /***
+     * Parses the next complete record of buffer, between its position and its limit, into values.
+     *
+     * @return true if a record was parsed; false when the buffer only holds an incomplete record
+     * (the position is left at its start) or the end marker
+     */
+    @Override
+    public boolean next(ByteBuffer buffer, double[] values) {
+        while (!this.endOfStream) {
+            int start = buffer.position();
+            int limit = buffer.limit();
+            int end = start;
+            while (end < limit && buffer.get(end) != RECORD_DELIMITER)
+                end++;
+            if (end == limit) {
+                if (isEndMarker(buffer, start, limit))
+                    this.endOfStream = true;
+                else if (start == 0 && limit == buffer.capacity())
+                    throw new RuntimeException("Record longer than the read buffer (" + buffer.capacity() + " bytes).");
+                return false;
+            }
+            buffer.position(end + 1);
+            if (isBlank(buffer, start, end))
+                continue;
+            if (isEndMarker(buffer, start, end)) {
+                this.endOfStream = true;
+                return false;
+            }
+            parseRecord(buffer, start, end, values);
+            return true;
+        }
+        return false;
+    }
+
+    private void parseRecord(ByteBuffer buffer, int start, int end, double[] values) {
+        int fieldStart = start;
+        for (int a = 0; a < this.numAttributes; a++) {
+            if (fieldStart > end) {
+                // fewer fields than attributes
+                values[a] = Double.NaN;
+                this.malformedFields++;
+                continue;
+            }
+            int fieldEnd = fieldStart;
+            while (fieldEnd < end && buffer.get(fieldEnd) != FIELD_DELIMITER)
+                fieldEnd++;
+            values[a] = parseField(buffer, fieldStart, fieldEnd, a);
+            fieldStart = fieldEnd + 1;
+        }
+    }
+
+    private double parseField(ByteBuffer buffer, int from, int to, int attribute) {
+        // trim blanks and line breaks
+        while (from < to && buffer.get(from) <= ' ')
+            from++;
+        while (to > from && buffer.get(to - 1) <= ' ')
+            to--;
+        if (to - from == 1 && buffer.get(from) == '?')
+            return Double.NaN;
+        if (to - from >= 2 && (buffer.get(from) == '\'' || buffer.get(from) == '"') && buffer.get(to - 1) == buffer.get(from)) {
+            from++;
+            to--;
+        }
+        byte[][] nominal = this.labels[attribute];
+        if (nominal != null) {
+            for (int v = 0; v < nominal.length; v++) {
+                if (equalBytes(buffer, from, to, nominal[v]))
+                    return v;
+            }
+            this.malformedFields++;
+            return Double.NaN;
+        }
+        return parseDouble(buffer, from, to);
+    }
+
+    /***
+     * Decimal number, with optional sign, fraction and exponent. When the digits fit in 53 bits
+     * and the power of ten is exact in a double, a single multiplication or division gives the
+     * correctly rounded result, like Double.parseDouble(). Anything else goes through Double.parseDouble().
+     */
+    private double parseDouble(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean anyDigit = false;
+        byte b;
+        while (i < to && (b = buffer.get(i)) >= '0' && b <= '9') {
+            anyDigit = true;
+            if (digits > 0 || b != '0') {
+                if (digits == 18)
+                    return slowParse(buffer, from, to);
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+            }
+            i++;
+        }
+        if (i < to && buffer.get(i) == '.') {
+            i++;
+            while (i < to && (b = buffer.get(i)) >= '0' && b <= '9') {
+                anyDigit = true;
+                if (digits > 0 || b != '0') {
+                    if (digits == 18)
+                        return slowParse(buffer, from, to);
+                    mantissa = mantissa * 10 + (b - '0');
+                    digits++;
+                }
+                exponent--;
+                i++;
+            }
+        }
+        if (!anyDigit)
+            return slowParse(buffer, from, to);
+        if (i < to && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+                negativeExponent = buffer.get(i) == '-';
+                i++;
+            }
+            int e = 0;
+            int expDigits = 0;
+            while (i < to && (b = buffer.get(i)) >= '0' && b <= '9' && expDigits < 9) {
+                e = e * 10 + (b - '0');
+                expDigits++;
+                i++;
+            }
+            if (expDigits == 0)
+                return slowParse(buffer, from, to);
+            exponent += negativeExponent ? -e : e;
+        }
+        if (i != to)
+            return slowParse(buffer, from, to);
+        double value;
+        if (mantissa == 0)
+            value = 0.0;
+        else if (exponent >= 0 && exponent < POWERS_OF_TEN.length && (digits + exponent) <= 15)
+            value = mantissa * POWERS_OF_TEN[exponent];
+        else if (exponent < 0 && -exponent < POWERS_OF_TEN.length && mantissa <= (1L << 53))
+            value = mantissa / POWERS_OF_TEN[-exponent];
+        else
+            return slowParse(buffer, from, to);
+        return negative ? -value : value;
+    }
+
+    private double slowParse(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = buffer.get(from + i);
+        try {
+            return Double.parseDouble(new String(bytes, StandardCharsets.UTF_8));
+        } catch (NumberFormatException ex) {
+            this.malformedFields++;
+            return Double.NaN;
+        }
+    }
+
+    private static boolean equalBytes(ByteBuffer buffer, int from, int to, byte[] label) {
+        if (to - from != label.length)
+            return false;
+        for (int i = 0; i < label.length; i++) {
+            if (buffer.get(from + i) != label[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isEndMarker(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i + 1 < to; i++) {
+            if (buffer.get(i) == END_MARKER && buffer.get(i + 1) == END_MARKER)
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isBlank(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) > ' ')
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ *    InstanceRing.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single producer, single consumer ring of instances with their arrival time.
+ *
+ * <p>The I/O thread of the Channel tasks puts the parsed instances, the learning
+ * thread takes them. Each side only writes its own index (a volatile long) and
+ * reads the other's, there is no lock. A side that finds the ring full (producer)
+ * or empty (consumer) spins briefly and then parks until the other side wakes it
+ * up, or until its deadline.</p>
+ *
+ * <p>The ring also keeps the statistics of the pipeline: depth seen by the
+ * consumer, backpressure events and time the producer spent blocked on a full
+ * ring, dropped instances when the producer does not wait, and time the consumer
+ * spent waiting on an empty ring. They are read once both threads are done.</p>
+ */
+public class InstanceRing {
+
+    protected static final int SPINS = 100;
+
+    // longest park, so a missed wake up only costs this much
+    protected static final long MAX_PARK_NANOS = 1000000L;
+
+    private final Instance[] instances;
+
+    private final long[] arrivals;
+
+    private final int mask;
+
+    // next position to take, written by the consumer only
+    private final AtomicLong head = new AtomicLong();
+
+    // next position to put, written by the producer only
+    private final AtomicLong tail = new AtomicLong();
+
+    private volatile boolean closed;
+
+    private volatile Thread waitingConsumer;
+
+    private volatile Thread waitingProducer;
+
+    // producer statistics
+    private long backpressureEvents;
+
+    private long producerStallNanos;
+
+    private long dropped;
+
+    // consumer statistics
+    private long lastArrival;
+
+    private long maxDepth;
+
+    private long depthSum;
+
+    private long taken;
+
+    private long consumerIdleNanos;
+
+    public InstanceRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.instances = new Instance[size];
+        this.arrivals = new long[size];
+        this.mask = size - 1;
+    }
+
+    public int capacity() {
+        return this.instances.length;
+    }
+
+    public int depth() {
+        return (int) (this.tail.get() - this.head.get());
+    }
+
+    /***
+     * Adds the instance if there is room, counts it as dropped otherwise. Producer only.
+     */
+    public boolean offer(Instance instance, long arrival) {
+        long t = this.tail.get();
+        if (t - this.head.get() == this.instances.length) {
+            this.dropped++;
+            return false;
+        }
+        publish(t, instance, arrival);
+        return true;
+    }
+
+    /***
+     * Adds the instance, waiting for room when the ring is full. Producer only.
+     *
+     * @return false if the ring was closed before there was room
+     */
+    public boolean put(Instance instance, long arrival) {
+        long t = this.tail.get();
+        if (t - this.head.get() == this.instances.length) {
+            this.backpressureEvents++;
+            long start = System.nanoTime();
+            int spins = 0;
+            while (t - this.head.get() == this.instances.length) {
+                if (this.closed)
+                    return false;
+                if (spins < SPINS) {
+                    spins++;
+                    Thread.onSpinWait();
+                } else {
+                    this.waitingProducer = Thread.currentThread();
+                    if (t - this.head.get() == this.instances.length && !this.closed)
+                        LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                    this.waitingProducer = null;
+                }
+            }
+            this.producerStallNanos += System.nanoTime() - start;
+        }
+        publish(t, instance, arrival);
+        return true;
+    }
+
+    private void publish(long t, Instance instance, long arrival) {
+        int index = (int) t & this.mask;
+        this.instances[index] = instance;
+        this.arrivals[index] = arrival;
+        this.tail.set(t + 1);
+        Thread consumer = this.waitingConsumer;
+        if (consumer != null)
+            LockSupport.unpark(consumer);
+    }
+
+    /***
+     * Takes the next instance, waiting until one arrives, the ring is closed and empty,
+     * or System.nanoTime() reaches deadline (-1 = no deadline). Consumer only.
+     *
+     * @return the instance, or null on deadline or when the ring is closed and empty
+     */
+    public Instance take(long deadline) {
+        long h = this.head.get();
+        if (h == this.tail.get()) {
+            long start = System.nanoTime();
+            int spins = 0;
+            while (h == this.tail.get()) {
+                if (this.closed && h == this.tail.get())
+                    break;
+                long now = System.nanoTime();
+                if (deadline >= 0 && now >= deadline)
+                    break;
+                if (spins < SPINS) {
+                    spins++;
+                    Thread.onSpinWait();
+                } else {
+                    long park = deadline >= 0 ? Math.min(MAX_PARK_NANOS, deadline - now) : MAX_PARK_NANOS;
+                    this.waitingConsumer = Thread.currentThread();
+                    if (h == this.tail.get() && !this.closed)
+                        LockSupport.parkNanos(this, park);
+                    this.waitingConsumer = null;
+                }
+            }
+            this.consumerIdleNanos += System.nanoTime() - start;
+            if (h == this.tail.get())
+                return null;
+        }
+        long depth = this.tail.get() - h;
+        if (depth > this.maxDepth)
+            this.maxDepth = depth;
+        this.depthSum += depth;
+        this.taken++;
+        int index = (int) h & this.mask;
+        Instance instance = this.instances[index];
+        this.instances[index] = null;
+        this.lastArrival = this.arrivals[index];
+        this.head.set(h + 1);
+        Thread producer = this.waitingProducer;
+        if (producer != null)
+            LockSupport.unpark(producer);
+        return instance;
+    }
+
+    /***
+     * Arrival time of the last instance taken. Consumer only.
+     */
+    public long lastArrival() {
+        return this.lastArrival;
+    }
+
+    /***
+     * No more instances will be put (producer done) or taken (consumer done).
+     */
+    public void close() {
+        this.closed = true;
+        Thread thread = this.waitingConsumer;
+        if (thread != null)
+            LockSupport.unpark(thread);
+        thread = this.waitingProducer;
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    /***
+     * Closed and nothing left to take.
+     */
+    public boolean isDrained() {
+        return this.closed && this.head.get() == this.tail.get();
+    }
+
+    public long getBackpressureEvents() {
+        return this.backpressureEvents;
+    }
+
+    public double getProducerStallMillis() {
+        return this.producerStallNanos / 1e6;
+    }
+
+    public long getDropped() {
+        return this.dropped;
+    }
+
+    public long getMaxDepth() {
+        return this.maxDepth;
+    }
+
+    public double getAverageDepth() {
+        return this.taken == 0 ? 0.0 : (double) this.depthSum / this.taken;
+    }
+
+    public double getConsumerIdleMillis() {
+        return this.consumerIdleNanos / 1e6;
+    }
+}
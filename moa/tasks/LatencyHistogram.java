@@ -0,0 +1,120 @@
+/*
+ *    LatencyHistogram.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import java.util.Arrays;
+
+/**
+ * Constant memory histogram of latencies in nanoseconds, in the style of HdrHistogram.
+ *
+ * <p>Values below 2048 ns get a bucket each. Above that, every power of two is
+ * split in 1024 linear sub-buckets, so a recorded value is known to 3 significant
+ * digits (relative error under 0.1%) whatever its magnitude. Values up to 2^42 ns
+ * (about 73 minutes) are tracked, larger ones are counted in the last bucket, and
+ * the exact maximum is kept aside. The counts take about 270 KB, however many
+ * values are recorded.</p>
+ */
+public class LatencyHistogram {
+
+    protected static final int SUB_BUCKET_BITS = 11;
+
+    protected static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    protected static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+
+    // highest bit of the largest trackable value
+    protected static final int MAX_VALUE_BITS = 42;
+
+    protected static final long MAX_TRACKABLE_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+    private final long[] counts;
+
+    private long totalCount;
+
+    private double sum;
+
+    private long max;
+
+    public LatencyHistogram() {
+        this.counts = new long[indexOf(MAX_TRACKABLE_VALUE) + 1];
+    }
+
+    /***
+     * Records one latency in nanoseconds, negative values are recorded as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        this.counts[indexOf(Math.min(value, MAX_TRACKABLE_VALUE))]++;
+        this.totalCount++;
+        this.sum += value;
+        if (value > this.max)
+            this.max = value;
+    }
+
+    public long getTotalCount() {
+        return this.totalCount;
+    }
+
+    public double getMean() {
+        return this.totalCount == 0 ? 0.0 : this.sum / this.totalCount;
+    }
+
+    public long getMax() {
+        return this.max;
+    }
+
+    /***
+     * Value (up to the bucket resolution) at or below which percentile percent of the recorded values fall.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (this.totalCount == 0)
+            return 0;
+        long rank = (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * this.totalCount);
+        rank = Math.max(1, rank);
+        long seen = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            seen += this.counts[i];
+            if (seen >= rank)
+                return Math.min(highestValueAt(i), this.max);
+        }
+        return this.max;
+    }
+
+    public void reset() {
+        Arrays.fill(this.counts, 0);
+        this.totalCount = 0;
+        this.sum = 0.0;
+        this.max = 0;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT)
+            return (int) value;
+        // value >>> shift falls in [SUB_BUCKET_HALF, SUB_BUCKET_COUNT)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (int) ((value >>> shift) - SUB_BUCKET_HALF);
+    }
+
+    private static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}